@@ -3,10 +3,13 @@ package simpledb;
 import simpledb.Predicate.Op;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +31,13 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc tupleDesc;
 	private final int tableId;
 	private int keyField;
+	private final FileChannelManager.Handle handle;
+
+	// number of empty pages appended at once when there is no free page, and
+	// the transactions recording the rest of an extent in the header pages,
+	// which only append single pages meanwhile
+	private volatile int extentSize = 1;
+	private final Set<TransactionId> extending = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,6 +52,24 @@ public class BTreeFile implements DbFile {
 		this.tableId = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.tupleDesc = tupleDesc;
+		this.handle = Database.getFileChannelManager().open(f);
+	}
+
+	/**
+	 * Set the number of pages the file grows by when a new page is needed and
+	 * none is free. The extra pages of an extent are recorded as free in the
+	 * header pages, see {@link #setEmptyPage}, so later calls to
+	 * {@link #getEmptyPageNo} hand them out, also after a restart. Defaults
+	 * to 1.
+	 */
+	public void setExtentSize(int pages) {
+		if (pages < 1)
+			throw new IllegalArgumentException("extent size must be positive");
+		this.extentSize = pages;
+	}
+
+	public int getExtentSize() {
+		return this.extentSize;
 	}
 
 	/**
@@ -82,14 +110,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = this.handle.read(ByteBuffer.wrap(pageBuf), 0);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -97,18 +123,12 @@ public class BTreeFile implements DbFile {
 							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+				return this.decodePage(id, pageBuf);
 			}
 			else {
 				byte[] pageBuf = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				int retval = this.handle.read(ByteBuffer.wrap(pageBuf), this.pageOffset(id.pageNumber()));
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BufferPool.getPageSize()) {
@@ -116,29 +136,34 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if (id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if (id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return this.decodePage(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
+		}
+	}
+	
+	/**
+	 * Construct a page from its data, as read from disk by {@link #readPage}.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the contents of the page
+	 * @return the page of the category of its id
+	 */
+	public Page decodePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR)
+				return new BTreeRootPtrPage(id, data);
+			else if (id.pgcateg() == BTreePageId.INTERNAL)
+				return new BTreeInternalPage(id, data, keyField);
+			else if (id.pgcateg() == BTreePageId.LEAF)
+				return new BTreeLeafPage(id, data, keyField);
+			else // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -151,17 +176,24 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().pageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		ByteBuffer data = PageCodec.encode(page);
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			this.handle.write(data, 0);
+		else
+			this.handle.write(data, this.pageOffset(id.pageNumber()));
+	}
+	
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		this.handle.close();
+	}
+	
+	/**
+	 * @return the offset in the file of the non root pointer page with the
+	 *         specified page number (page numbers start at 1)
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
 	}
 	
 	/**
@@ -179,6 +211,16 @@ public class BTreeFile implements DbFile {
 		return this.keyField;
 	}
 
+	/**
+	 * B+ tree files always lock whole pages, even while the buffer pool uses
+	 * record locks: an insert or delete may split, merge or redistribute
+	 * pages, moving tuples that other transactions may have changed.
+	 */
+	@Override
+	public boolean supportsRecordLocking() {
+		return false;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -1057,13 +1099,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if (f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				this.handle.write(ByteBuffer.wrap(emptyRootPtrData), 0);
+				this.handle.write(ByteBuffer.wrap(emptyLeafData), emptyRootPtrData.length);
 			}
 		}
 
@@ -1117,14 +1156,23 @@ public class BTreeFile implements DbFile {
 		// at this point if headerId is null, either there are no header pages
 		// or there are no free slots
 		if (headerId == null) {
+			// a header page needed to record an extent is a single new page
+			int count = this.extending.contains(tid) ? 1 : this.extentSize;
 			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				// create a new extent; an empty page is all zeros
+				emptyPageNo = numPages() + 1;
+				this.handle.write(ByteBuffer.allocate(BufferPool.getPageSize() * count), this.handle.size());
+			}
+
+			if (count > 1) {
+				this.extending.add(tid);
+				try {
+					for (int i = 1; i < count; i++)
+						setEmptyPage(tid, dirtypages, emptyPageNo + i);
+				}
+				finally {
+					this.extending.remove(tid);
+				}
 			}
 		}
 
@@ -1154,10 +1202,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableId, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		this.handle.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), this.pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache
 		Database.getBufferPool().discardPage(newPageId);
@@ -1309,6 +1354,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curPage = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curPage = (BTreeLeafPage) Database.getBufferPool().pinPage(tid, curPage.getId(),
+				Permissions.READ_ONLY);
 		it = curPage.iterator();
 	}
 
@@ -1325,11 +1372,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 		while (it == null && curPage != null) {
 			BTreePageId nextp = curPage.getRightSiblingId();
-			if (nextp == null) {
-				curPage = null;
-			}
-			else {
-				curPage = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+			unpin();
+			if (nextp != null) {
+				curPage = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
 						nextp, Permissions.READ_ONLY);
 				it = curPage.iterator();
 				if (!it.hasNext())
@@ -1356,7 +1401,17 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
-		curPage = null;
+		unpin();
+	}
+	
+	/**
+	 * unpin the current page, which is pinned while the iterator walks it
+	 */
+	private void unpin() {
+		if (curPage != null) {
+			Database.getBufferPool().unpinPage(tid, curPage.getId());
+			curPage = null;
+		}
 	}
 }
 
@@ -1400,6 +1455,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		curp = (BTreeLeafPage) Database.getBufferPool().pinPage(tid, curp.getId(),
+				Permissions.READ_ONLY);
 		it = curp.iterator();
 	}
 
@@ -1438,7 +1495,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				unpin();
+				curp = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
 						nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
 			}
@@ -1461,5 +1519,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		unpin();
+	}
+	
+	/**
+	 * unpin the current page, which is pinned while the iterator walks it
+	 */
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+			curp = null;
+		}
 	}
 }
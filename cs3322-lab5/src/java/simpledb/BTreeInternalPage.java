@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -110,8 +111,6 @@ public class BTreeInternalPage extends BTreePage implements Iterable<BTreeEntry>
 			e.printStackTrace();
 		}
 		dis.close();
-
-		setBeforeImage();
 	}
 
 	/** 
@@ -143,11 +142,7 @@ public class BTreeInternalPage extends BTreePage implements Iterable<BTreeEntry>
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock) {
-				oldDataRef = oldData;
-			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,beforeImage.get(this),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -156,10 +151,18 @@ public class BTreeInternalPage extends BTreePage implements Iterable<BTreeEntry>
 		return null;
 	}
 
+	/**
+	 * The current content of this page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 *
+	 * @see #captureBeforeImage()
+	 */
 	public void setBeforeImage() {
-		synchronized(oldDataLock) {
-			oldData = getPageData().clone();
-		}
+		beforeImage.set();
+	}
+
+	public void captureBeforeImage() {
+		beforeImage.capture(this);
 	}
 
 	/**
@@ -233,61 +236,36 @@ public class BTreeInternalPage extends BTreePage implements Iterable<BTreeEntry>
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		return PageCodec.toByteArray(this, BufferPool.getPageSize());
+	}
 
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
+	// see Page.java for javadocs
+	public void writePageData(ByteBuffer buf) {
+		int start = buf.position();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent pointer
+		buf.putInt(parent);
 
 		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		buf.put((byte) childCategory);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		buf.put(header);
 
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
+		int keySize = td.getFieldType(keyField).getLen();
 		for (int i=1; i<keys.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				PageCodec.putZeros(buf, keySize);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
+			keys[i].serialize(buf);
 		}
 
 		// create the child pointers
@@ -295,43 +273,16 @@ public class BTreeInternalPage extends BTreePage implements Iterable<BTreeEntry>
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				PageCodec.putZeros(buf, INDEX_SIZE);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			buf.putInt(children[i]);
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		PageCodec.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
 	}
 
 	/**
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -104,8 +105,6 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 		dis.close();
-
-		setBeforeImage();
 	}
 
 	/** 
@@ -134,12 +133,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,beforeImage.get(this),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -148,11 +142,18 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
+	/**
+	 * The current content of this page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 *
+	 * @see #captureBeforeImage()
+	 */
 	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
+		beforeImage.set();
+	}
+
+	public void captureBeforeImage() {
+		beforeImage.capture(this);
 	}
 
 	/**
@@ -201,84 +202,38 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
+		return PageCodec.toByteArray(this, BufferPool.getPageSize());
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
+	// see Page.java for javadocs
+	public void writePageData(ByteBuffer buf) {
+		int start = buf.position();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent and sibling pointers
+		buf.putInt(parent);
+		buf.putInt(leftSibling);
+		buf.putInt(rightSibling);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		buf.put(header);
 
 		// create the tuples
+		int tupleSize = td.getSize();
 		for (int i=0; i<tuples.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				PageCodec.putZeros(buf, tupleSize);
 				continue;
 			}
 
 			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+			for (int j=0; j<td.numFields(); j++)
+				tuples[i].getField(j).serialize(buf);
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		PageCodec.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
 	}
 
 	/**
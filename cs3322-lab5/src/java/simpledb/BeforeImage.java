@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * BeforeImage keeps the before image of a page that copies it lazily: the
+ * content of the page is only copied when a transaction is about to modify
+ * it, see {@link Page#captureBeforeImage()}, and dropped again when the
+ * transaction commits. Each page has its own instance.
+ *
+ * @Threadsafe
+ */
+class BeforeImage {
+	private final Object lock = new Object();
+	private byte[] data;
+
+	/**
+	 * @return the content of the page before it was modified: the kept copy,
+	 *         or the current content if the page has not been modified since
+	 *         it was read or last committed
+	 */
+	byte[] get(Page page) {
+		byte[] data;
+		synchronized (this.lock) {
+			data = this.data;
+		}
+		return data != null ? data : page.getPageData();
+	}
+
+	/**
+	 * The current content of the page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 */
+	void set() {
+		synchronized (this.lock) {
+			this.data = null;
+		}
+	}
+
+	/**
+	 * Keep a copy of the current content of the page, unless one is kept
+	 * already.
+	 */
+	void capture(Page page) {
+		synchronized (this.lock) {
+			if (this.data == null)
+				this.data = page.getPageData();
+		}
+	}
+}
@@ -1,12 +1,13 @@
 package simpledb;
 
-import simpledb.utils.HashablePair;
-
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,9 +16,21 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. The locks are granted by its
+ * {@link LockManager}.
+ * <p>
+ * Pages are hash partitioned: each partition has its own latch, which guards
+ * its pages and its replacement policy, so that requests for pages of
+ * different partitions do not wait for each other. A hit only takes the latch
+ * of its partition, and no latch is held while a page is read from disk: a
+ * placeholder stands for the page being read, and other requests for the
+ * same page wait for that read instead of starting their own.
  *
- * @Threadsafe , all fields are final
+ * @Threadsafe , the pages of a partition, with their pins, reads and
+ * evictions in progress, only change with the latch of the partition held;
+ * the other per-page and per-transaction state is kept in concurrent maps.
+ * The capacity and the modes are volatile, so that they can be changed while
+ * the buffer pool is used.
  */
 public class BufferPool {
 	/** Bytes per page, including header. */
@@ -30,6 +43,11 @@ public class BufferPool {
 	 constructor instead. */
 	public static final int DEFAULT_PAGES = 50;
 	
+	/** The most partitions a buffer pool is split into by default. */
+	public static final int MAX_PARTITIONS = 16;
+	/** The fewest pages per partition a buffer pool is split into by default. */
+	public static final int MIN_PARTITION_PAGES = 16;
+	
 //	public static class PageItem {
 //		PageId pid;
 //		TransactionId tid;
@@ -44,26 +62,344 @@ public class BufferPool {
 //		}
 //	}
 	
-	private final int numPages;
+	private volatile int numPages;
 	
 //	private final LinkedHashMap<PageId, Page> pageTableById =
 //			new LinkedHashMap<>(0, 0.75f, true);
 	private final ConcurrentHashMap<PageId, Page> pageTableById =
 			new ConcurrentHashMap<>(); // 你干嘛哎哟
 	
-	private final ConcurrentHashMap<PageId, ReadWriteSemaphore> lockTbl =
+	private final LockManager locks = new LockManager();
+	// the pages each transaction requested, with the strongest permissions
+	// it requested each with: table locks do not tell which pages were
+	// written
+	private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Permissions>> requested =
 			new ConcurrentHashMap<>();
-	private final ConcurrentHashMap<HashablePair<TransactionId, PageId>, LockInfo>
-			lockInfoTbl = new ConcurrentHashMap<>();
-	private final DependencyGraph graph = new DependencyGraph();
+	
+	private final Partition[] partitions;
+	// pages in pageTableById plus pages being read into it, kept at most
+	// numPages by reserving a frame before every read
+	private final AtomicInteger size = new AtomicInteger();
+	private final BufferPoolMetrics metrics = new BufferPoolMetrics(this.pageTableById::values);
+	
+	// committed pages not written to disk yet, with the log offset that must
+	// be forced before they are; a transaction writing one of them again
+	// moves it to reclaimed until it completes. Both are only changed with
+	// the latch of the partition of the page held.
+	private final ConcurrentHashMap<PageId, Long> committedDirty = new ConcurrentHashMap<>();
+	private final Set<PageId> reclaimed = ConcurrentHashMap.newKeySet();
+	private volatile PageWriter writer = null;
+	private volatile boolean steal = false;
+	
+	// the tuples changed under record locks, to undo them at abort
+	private final RecordUndo recordUndo = new RecordUndo();
+	private volatile boolean recordLocking = false;
 	
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Creates a BufferPool that caches up to numPages pages, replaced with
+	 * the {@link ClockPolicy}.
 	 *
 	 * @param numPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
+		this(numPages, ClockPolicy::new);
+	}
+	
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, replaced with
+	 * the specified policy.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param policy creates the replacement policy of a partition, given the
+	 *               number of pages of the partition
+	 */
+	public BufferPool(int numPages, IntFunction<ReplacementPolicy> policy) {
+		this(numPages, policy,
+				Math.max(1, Math.min(MAX_PARTITIONS, numPages / MIN_PARTITION_PAGES)));
+	}
+	
+	/**
+	 * Creates a BufferPool that caches up to numPages pages in the specified
+	 * number of partitions, each replaced with its own instance of the
+	 * specified policy. The partitions share the numPages pages: a partition
+	 * that cannot evict any page takes a page of another one.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param policy creates the replacement policy of a partition, given the
+	 *               number of pages of the partition
+	 * @param partitions the number of partitions
+	 */
+	public BufferPool(int numPages, IntFunction<ReplacementPolicy> policy, int partitions) {
+		this(numPages, policy, partitions, 0);
+	}
+	
+	/**
+	 * Creates a BufferPool as {@link #BufferPool(int, IntFunction, int)},
+	 * backed by a {@link PageArena} of the specified number of pages, split
+	 * between the partitions. Clean pages evicted from a partition are kept
+	 * serialized in its arena, off the Java heap, and decoded again instead
+	 * of being read from disk if they are requested before the arena
+	 * replaces them.
+	 *
+	 * @param arenaPages the number of pages kept off the heap, or 0 for none
+	 */
+	public BufferPool(int numPages, IntFunction<ReplacementPolicy> policy, int partitions,
+	                  int arenaPages) {
+		this.numPages = numPages;
+		this.partitions = new Partition[Math.max(partitions, 1)];
+		int capacity = (numPages + this.partitions.length - 1) / this.partitions.length;
+		int arenaCapacity = (arenaPages + this.partitions.length - 1) / this.partitions.length;
+		for (int i = 0; i < this.partitions.length; i++)
+			this.partitions[i] = new Partition(policy.apply(capacity),
+					arenaCapacity > 0 ? new PageArena(arenaCapacity) : null);
+	}
+	
+	/**
+	 * @return the maximum number of pages in this buffer pool
+	 */
+	public int getNumPages() {
+		return this.numPages;
+	}
+	
+	/**
+	 * Change the maximum number of pages of this buffer pool, while it is
+	 * used. Growing takes effect at once. Shrinking evicts pages down to the
+	 * new size, chosen by the replacement policy like on a miss; pages that
+	 * cannot be evicted yet, e.g. pinned pages or dirty pages under NO-STEAL,
+	 * are left to the following misses, which evict until the buffer pool is
+	 * within its size again. Running transactions keep their locks and pages.
+	 * The number of partitions does not change.
+	 *
+	 * @param numPages the new maximum number of pages, at least 1
+	 */
+	public synchronized void resize(int numPages) {
+		if (numPages < 1)
+			throw new IllegalArgumentException("a buffer pool needs at least one page");
+		
 		this.numPages = numPages;
+		int capacity = (numPages + this.partitions.length - 1) / this.partitions.length;
+		for (Partition part : this.partitions) {
+			synchronized (part) {
+				part.policy.resize(capacity);
+			}
+		}
+		
+		for (int i = 0; this.size.get() > this.numPages; i++) {
+			if (!this.evictPage(i % this.partitions.length))
+				break;
+		}
+	}
+	
+	/**
+	 * Record the pages in this buffer pool, with the number of requests for
+	 * each since it was read, in the specified file, for
+	 * {@link #warmUp(File)} to load them back after a restart. The
+	 * {@link LogFile} records them at every checkpoint.
+	 */
+	public void saveHotPages(File f) throws IOException {
+		Map<PageId, Integer> pages = new HashMap<>();
+		for (Partition part : this.partitions) {
+			synchronized (part) {
+				pages.putAll(part.accesses);
+			}
+		}
+		HotPageSet.save(pages, f);
+	}
+	
+	/**
+	 * Load the pages recorded by {@link #saveHotPages(File)} in the
+	 * background, once the catalog is loaded: the most requested pages that
+	 * fit in the buffer pool, sorted by table and page number, in batches of
+	 * {@link HotPageSet#BATCH_PAGES}. The pages are prefetched, see
+	 * {@link #prefetchPage(PageId)}; pages of tables no longer in the catalog
+	 * are skipped, and loading stops rather than evict once the buffer pool
+	 * is full.
+	 *
+	 * @return the number of pages loaded, once they are
+	 */
+	public CompletableFuture<Integer> warmUp(File f) {
+		CompletableFuture<Integer> loaded = new CompletableFuture<>();
+		Thread t = new Thread(() -> {
+			try {
+				List<PageId> pages = HotPageSet.load(f).entrySet().stream()
+						.sorted(Map.Entry.<PageId, Integer>comparingByValue().reversed())
+						.limit(this.numPages)
+						.map(Map.Entry::getKey)
+						.sorted(Comparator.comparingInt(PageId::getTableId)
+								.thenComparingInt(PageId::pageNumber))
+						.collect(Collectors.toList());
+				int n = 0;
+				for (int from = 0; from < pages.size() && this.size.get() < this.numPages;
+				     from += HotPageSet.BATCH_PAGES) {
+					for (PageId pid : pages.subList(from, Math.min(pages.size(), from + HotPageSet.BATCH_PAGES))) {
+						if (this.size.get() >= this.numPages)
+							break;
+						if (this.prefetchPage(pid))
+							n++;
+					}
+				}
+				loaded.complete(n);
+			}
+			catch (IOException | RuntimeException e) {
+				loaded.completeExceptionally(e);
+			}
+		}, "simpledb-warmup");
+		t.setDaemon(true);
+		t.start();
+		return loaded;
+	}
+	
+	/**
+	 * @return the number of partitions of this buffer pool
+	 */
+	public int getNumPartitions() {
+		return this.partitions.length;
+	}
+	
+	/**
+	 * @return the number of pages kept off the heap by this buffer pool
+	 */
+	public int getNumArenaPages() {
+		return Arrays.stream(this.partitions)
+				.mapToInt(part -> part.arena != null ? part.arena.getCapacity() : 0)
+				.sum();
+	}
+	
+	/**
+	 * @return the number of requests to {@link #getPage} that found the page
+	 *         in the buffer pool, being read into it, or in its arena
+	 */
+	public long getHitCount() {
+		return this.metrics.getHits();
+	}
+	
+	/**
+	 * @return the number of requests to {@link #getPage} that had to read
+	 *         the page from disk
+	 */
+	public long getMissCount() {
+		return this.metrics.getMisses();
+	}
+	
+	/**
+	 * @return the number of pages written to disk by transactions, e.g. at
+	 *         commit, on eviction or at a checkpoint
+	 */
+	public long getForegroundWriteCount() {
+		return this.metrics.getForegroundWrites();
+	}
+	
+	/**
+	 * @return the number of pages written to disk by the background writer
+	 */
+	public long getBackgroundWriteCount() {
+		return this.metrics.getBackgroundWrites();
+	}
+	
+	/**
+	 * @return the counters and latency histograms of this buffer pool
+	 */
+	public BufferPoolMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * @return the lock manager granting the page locks of this buffer pool
+	 */
+	public LockManager getLockManager() {
+		return this.locks;
+	}
+	
+	/**
+	 * Start writing the pages of committed transactions in the background:
+	 * from now on commit only logs the dirty pages of the transaction and
+	 * forces the log, see {@link #flushPages(TransactionId)}. A committed
+	 * page the writer has not written yet is written by the evicting thread
+	 * if it has to be evicted first.
+	 */
+	public synchronized void startBackgroundWriter() {
+		if (this.writer == null)
+			this.writer = new PageWriter(this);
+	}
+	
+	/**
+	 * Stop the background writer, and write the committed pages it left.
+	 */
+	public synchronized void stopBackgroundWriter() throws IOException {
+		if (this.writer != null) {
+			this.writer.shutdown();
+			this.writer = null;
+			while (this.writeCommittedPages(PageWriter.BATCH_PAGES) > 0)
+				;
+		}
+	}
+	
+	/**
+	 * Wait until the background writer, if it is started, has written the
+	 * pages of the transactions committed so far.
+	 */
+	void awaitBackgroundWriter() throws IOException, InterruptedException {
+		PageWriter writer = this.writer;
+		if (writer != null)
+			writer.awaitWritten();
+	}
+	
+	/**
+	 * Switch STEAL / NO-FORCE mode on or off. In that mode commit only logs
+	 * the dirty pages of the transaction, like with the background writer,
+	 * and dirty pages of running transactions can be evicted once logged:
+	 * a transaction can then modify more pages than the buffer pool holds.
+	 * Transactions must then be started and completed with
+	 * {@link Transaction}, so that the log can undo them: the
+	 * {@link LogFile} undoes the stolen pages of transactions that abort, and
+	 * redoes the pages of committed transactions that were not written when
+	 * recovering.
+	 */
+	public void setStealNoForce(boolean on) {
+		this.steal = on;
+	}
+	
+	/**
+	 * @return whether the buffer pool is in STEAL / NO-FORCE mode
+	 */
+	public boolean isStealNoForce() {
+		return this.steal;
+	}
+	
+	/**
+	 * Switch record locking on or off. With record locking on,
+	 * {@link HeapFile}s lock the tuples they insert and delete, and their
+	 * pages only in {@link LockManager.Mode#INTENTION_EXCLUSIVE} mode, so
+	 * that several transactions can change different tuples of the same page
+	 * at the same time; the page itself is only latched while it is changed,
+	 * and scans of those files lock pages instead of the whole table. The
+	 * changes of a transaction that aborts are then
+	 * undone tuple by tuple, and the page written when a transaction commits
+	 * leaves out the tuples of the transactions still running. Files that
+	 * do not support record locks keep locking pages, see
+	 * {@link #isRecordLocking(DbFile)}. Record locking is ignored while the
+	 * background writer is started or in STEAL / NO-FORCE mode, whose log
+	 * records whole pages. Only switch it while no transaction is running.
+	 */
+	public void setRecordLocking(boolean on) {
+		this.recordLocking = on;
+	}
+	
+	/**
+	 * @return whether heap files insert and delete tuples under record locks
+	 */
+	public boolean isRecordLocking() {
+		return this.recordLocking && this.writer == null && !this.steal;
+	}
+	
+	/**
+	 * @return whether the specified file inserts and deletes tuples under
+	 *         record locks: B+ tree files and heap files with other page
+	 *         layouts lock whole pages even while record locking is on, see
+	 *         {@link DbFile#supportsRecordLocking()}
+	 */
+	public boolean isRecordLocking(DbFile file) {
+		return this.isRecordLocking() && file.supportsRecordLocking();
 	}
 	
 	public static int getPageSize() {
@@ -97,24 +433,340 @@ public class BufferPool {
 	 */
 	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException {
-		ReadWriteSemaphore lock = this.lockTbl.computeIfAbsent(pid, foo -> new ReadWriteSemaphore());
-		LockInfo info = this.lockInfoTbl.computeIfAbsent(new HashablePair<>(tid, pid),
-				foo -> new LockInfo(tid, lock));
-		info.update(perm == Permissions.READ_WRITE);
+		return this.getPage(tid, pid, perm, null);
+	}
+	
+	/**
+	 * Retrieve the specified page with the associated permissions, as
+	 * {@link #getPage(TransactionId, PageId, Permissions)}. If the page has to
+	 * be read from disk and a ring is specified, the page goes into the ring,
+	 * replacing its oldest page once it is full.
+	 *
+	 * @param ring the ring of the calling scan, or null to let the
+	 *             replacement policy make room for the page
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException {
+		long start = System.nanoTime();
+		this.locks.acquire(tid, pid, perm == Permissions.READ_WRITE
+				? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+		this.metrics.lockWait(System.nanoTime() - start);
+		
+		ConcurrentHashMap<PageId, Permissions> pages = this.requested.get(tid);
+		if (pages == null)
+			pages = this.requested.computeIfAbsent(tid, foo -> new ConcurrentHashMap<>());
+		if (perm == Permissions.READ_WRITE)
+			pages.put(pid, perm);
+		else
+			pages.putIfAbsent(pid, perm);
+		
+		Page page = this.lookUp(pid, ring);
+		
+		// a page is about to be modified: keep its committed content as the
+		// before image until the transaction completes, and keep the
+		// background writer away from it
+		if (perm == Permissions.READ_WRITE) {
+			Partition part = this.partitionOf(pid);
+			synchronized (part) {
+				if (!tid.equals(page.isDirty()))
+					page.captureBeforeImage();
+				if (this.committedDirty.remove(pid) != null)
+					this.reclaimed.add(pid);
+			}
+		}
+		
+		// return the page looked up, not whatever is cached by now: the page
+		// may be evicted as soon as it is looked up, e.g. for a prefetch
+		return page;
+	}
+	
+	/**
+	 * Retrieve the specified page of a heap file to insert or delete tuples
+	 * of it under record locks, see {@link #setRecordLocking(boolean)}. The
+	 * page is only locked in {@link LockManager.Mode#INTENTION_EXCLUSIVE}
+	 * mode, so that other transactions can change other tuples of it; the
+	 * caller changes it with its latch held, i.e. synchronized on the page,
+	 * and records every change with {@link #recordInserted} or
+	 * {@link #recordDeleted} before it releases the latch.
+	 */
+	public Page getPageForRecords(TransactionId tid, PageId pid)
+			throws TransactionAbortedException, DbException {
+		long start = System.nanoTime();
+		this.locks.acquire(tid, pid, LockManager.Mode.INTENTION_EXCLUSIVE);
+		this.metrics.lockWait(System.nanoTime() - start);
+		
+		this.requested.computeIfAbsent(tid, foo -> new ConcurrentHashMap<>())
+				.putIfAbsent(pid, Permissions.READ_ONLY);
+		return this.lookUp(pid, null);
+	}
+	
+	/**
+	 * Look the specified page up, reading it if it is not cached.
+	 */
+	private Page lookUp(PageId pid, BufferRing ring) throws DbException {
+		Page page = this.pageTableById.get(pid);
+		if (page == null)
+			return this.loadPage(pid, ring, false);
+		
+		this.metrics.hit(pid);
+		Partition part = this.partitionOf(pid);
+		synchronized (part) {
+			part.policy.pageAccessed(pid);
+			part.accesses.computeIfPresent(pid, (foo, n) -> n + 1);
+		}
+		return page;
+	}
+	
+	/**
+	 * Lock a record on behalf of a transaction, under an intention lock on
+	 * its page. May block if the lock cannot be acquired.
+	 *
+	 * @param tid the ID of the transaction requesting the lock
+	 * @param rid the ID of the record to lock
+	 * @param perm the permissions needed on the record
+	 */
+	public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+			throws TransactionAbortedException {
+		long start = System.nanoTime();
+		this.locks.acquireRecord(tid, rid, perm == Permissions.READ_WRITE
+				? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+		this.metrics.lockWait(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Lock a record on behalf of a transaction, as
+	 * {@link #lockRecord(TransactionId, RecordId, Permissions)}, but only if
+	 * the lock can be granted at once, e.g. with the latch of its page held.
+	 * The transaction must hold an intention lock on the page already, see
+	 * {@link #getPageForRecords}.
+	 *
+	 * @return whether the lock was granted
+	 */
+	boolean tryLockRecord(TransactionId tid, RecordId rid, Permissions perm) {
+		return this.locks.tryAcquireRecord(tid, rid, perm == Permissions.READ_WRITE
+				? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+	}
+	
+	/**
+	 * Record that a transaction inserted a tuple into a page it got from
+	 * {@link #getPageForRecords}. Called with the latch of the page held.
+	 */
+	void recordInserted(TransactionId tid, Tuple t) {
+		this.recordUndo.add(tid, t, true);
+	}
+	
+	/**
+	 * Record that a transaction deleted a tuple from a page it got from
+	 * {@link #getPageForRecords}. Called with the latch of the page held.
+	 */
+	void recordDeleted(TransactionId tid, Tuple t) {
+		this.recordUndo.add(tid, t, false);
+	}
+	
+	/**
+	 * @return the slots of a page tuples deleted by other running
+	 *         transactions may be put back into, which must stay empty.
+	 *         Called with the latch of the page held.
+	 */
+	BitSet reservedSlots(TransactionId tid, PageId pid) {
+		return this.recordUndo.reserved(tid, pid);
+	}
+	
+	/**
+	 * Retrieve the specified page with the associated permissions, as
+	 * {@link #getPage(TransactionId, PageId, Permissions)}, and pin it: the
+	 * page stays in the buffer pool until the transaction unpins it as many
+	 * times as it pinned it, or completes, so that e.g. an iterator walking
+	 * it can use it directly without fetching it again.
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return this.pinPage(tid, pid, perm, null);
+	}
+	
+	/**
+	 * Retrieve the specified page, as
+	 * {@link #getPage(TransactionId, PageId, Permissions, BufferRing)}, and
+	 * pin it, as {@link #pinPage(TransactionId, PageId, Permissions)}.
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException {
+		Partition part = this.partitionOf(pid);
+		while (true) {
+			Page page = this.getPage(tid, pid, perm, ring);
+			synchronized (part) {
+				// the page may have been evicted since it was fetched
+				if (this.pageTableById.get(pid) == page && this.locks.holdsLock(tid, pid)) {
+					part.pins.computeIfAbsent(pid, foo -> new HashMap<>(2)).merge(tid, 1, Integer::sum);
+					return page;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Unpin a page pinned by the specified transaction with
+	 * {@link #pinPage}. The lock on the page is kept.
+	 */
+	public void unpinPage(TransactionId tid, PageId pid) {
+		this.unpin(tid, pid, 1);
+	}
+	
+	/**
+	 * Return true if some transaction has the specified page pinned.
+	 */
+	public boolean isPinned(PageId pid) {
+		Partition part = this.partitionOf(pid);
+		synchronized (part) {
+			return part.pins.containsKey(pid);
+		}
+	}
+	
+	/**
+	 * Drop up to n pins of a transaction on a page.
+	 */
+	private void unpin(TransactionId tid, PageId pid, int n) {
+		Partition part = this.partitionOf(pid);
+		synchronized (part) {
+			HashMap<TransactionId, Integer> pins = part.pins.get(pid);
+			if (pins == null)
+				return;
+			pins.computeIfPresent(tid, (foo, pinned) -> pinned > n ? pinned - n : null);
+			if (pins.isEmpty())
+				part.pins.remove(pid);
+		}
+	}
+	
+	/**
+	 * Load the specified page into the buffer pool ahead of time, without
+	 * locking it on behalf of any transaction. A prefetched page only becomes
+	 * visible to a transaction through {@link #getPage}, which takes the lock
+	 * as usual.
+	 * <p>
+	 * This is best effort: nothing happens if the page is already cached or
+	 * being read, if making room for it would require evicting a dirty page,
+	 * or if the page was discarded while it was being read (the copy read
+	 * from disk could then be stale).
+	 *
+	 * @param pid the ID of the page to prefetch
+	 * @return true if the page was read and added to the buffer pool
+	 */
+	public boolean prefetchPage(PageId pid) {
+		return this.prefetchPage(pid, null);
+	}
+	
+	/**
+	 * Load the specified page into the buffer pool ahead of time, as
+	 * {@link #prefetchPage(PageId)}, into the ring of the scan that will ask
+	 * for it if a ring is specified.
+	 */
+	public boolean prefetchPage(PageId pid, BufferRing ring) {
+		if (this.pageTableById.containsKey(pid))
+			return false;
 		
-		synchronized (this) {
-			if (!this.pageTableById.containsKey(pid)) {
-				if (this.pageTableById.size() >= this.numPages)
-					this.evictPage();
+		try {
+			return this.loadPage(pid, ring, true) != null;
+		}
+		catch (RuntimeException e) {
+			return false; // e.g. no clean page to evict, or the page is past the end
+		}
+	}
+	
+	/**
+	 * Read a page that was not found in the buffer pool, or wait for the
+	 * read already in progress for it. The latch of the partition of the page
+	 * is only held to look the page up and to add it, not during the read.
+	 *
+	 * @param prefetch true to give up instead of waiting for another read of
+	 *                 the page, or reading it again if it was discarded
+	 * @return the page, or null if prefetch is true and the page was not read
+	 */
+	private Page loadPage(PageId pid, BufferRing ring, boolean prefetch) throws DbException {
+		Partition part = this.partitionOf(pid);
+		while (true) {
+			PageLoad load;
+			boolean reader = false;
+			synchronized (part) {
+				Page page = this.pageTableById.get(pid);
+				load = part.loading.get(pid);
+				if (page != null || load != null) {
+					if (prefetch)
+						return null;
+					this.metrics.hit(pid);
+					if (page != null) {
+						part.policy.pageAccessed(pid);
+						part.accesses.computeIfPresent(pid, (foo, n) -> n + 1);
+						return page;
+					}
+				}
+				else {
+					load = new PageLoad();
+					part.loading.put(pid, load);
+					reader = true;
+				}
+			}
+			
+			if (!reader) {
+				// another request reads the page: wait for it, and read it
+				// again if the read failed or was discarded
+				Page page = load.page.join();
+				if (page != null)
+					return page;
+				continue;
+			}
+			
+			Page page = null;
+			boolean reserved = false;
+			try {
+				this.makeRoom(pid, ring);
+				reserved = true;
 				
-				assert this.pageTableById.size() < this.numPages;
+				byte[] data = null;
+				if (part.arena != null) {
+					synchronized (part) {
+						data = part.arena.take(pid);
+					}
+				}
 				
-				this.pageTableById.put(pid,
-						Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
+				DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+				if (data != null)
+					page = file.decodePage(pid, data);
+				if (page == null) {
+					if (!prefetch)
+						this.metrics.miss(pid);
+					long start = System.nanoTime();
+					page = file.readPage(pid);
+					this.metrics.readLatency(System.nanoTime() - start);
+				}
+				else if (!prefetch)
+					this.metrics.hit(pid);
 			}
+			finally {
+				synchronized (part) {
+					part.loading.remove(pid);
+					if (page != null && !load.stale) {
+						Page cached = this.pageTableById.putIfAbsent(pid, page);
+						if (cached == null) {
+							part.policy.pageAdded(pid);
+							part.accesses.put(pid, prefetch ? 0 : 1);
+							if (ring != null)
+								ring.add(pid);
+							reserved = false;
+						}
+						else
+							page = cached; // added meanwhile, e.g. by insertTuple
+					}
+					else
+						page = null;
+				}
+				if (reserved)
+					this.size.decrementAndGet();
+				load.page.complete(page);
+			}
+			
+			if (page != null || prefetch)
+				return page;
 		}
-		
-		return this.pageTableById.get(pid);
 	}
 	
 	/**
@@ -127,12 +779,30 @@ public class BufferPool {
 	 * @param pid the ID of the page to unlock
 	 */
 	public void releasePage(TransactionId tid, PageId pid) {
-		LockInfo info = this.lockInfoTbl.get(new HashablePair<>(tid, pid));
-		
-		if (info != null) {
-			info.unlock();
-			this.lockInfoTbl.remove(new HashablePair<>(tid, pid));
-		}
+		this.unpin(tid, pid, Integer.MAX_VALUE);
+		Map<PageId, Permissions> pages = this.requested.get(tid);
+		if (pages != null)
+			pages.remove(pid);
+		this.locks.release(tid, pid);
+	}
+	
+	/**
+	 * Lock a whole table on behalf of a transaction, e.g. before scanning
+	 * it: the transaction can then fetch any page of the table with the
+	 * specified permissions without locking it. Otherwise pages are locked
+	 * one by one, under intention locks on their table. May block if the
+	 * lock cannot be acquired.
+	 *
+	 * @param tid the ID of the transaction requesting the lock
+	 * @param tableId the ID of the table to lock
+	 * @param perm the permissions needed on all the pages of the table
+	 */
+	public void lockTable(TransactionId tid, int tableId, Permissions perm)
+			throws TransactionAbortedException {
+		long start = System.nanoTime();
+		this.locks.acquireTable(tid, tableId, perm == Permissions.READ_WRITE
+				? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+		this.metrics.lockWait(System.nanoTime() - start);
 	}
 	
 	/**
@@ -146,7 +816,16 @@ public class BufferPool {
 	
 	/** Return true if the specified transaction has a lock on the specified page */
 	public boolean holdsLock(TransactionId tid, PageId p) {
-		return lockInfoTbl.containsKey(new HashablePair<>(tid, p));
+		return this.locks.holdsLock(tid, p);
+	}
+	
+	/**
+	 * Return true if some transaction currently holds a lock on the
+	 * specified page. This is only a snapshot, e.g. for picking a page that
+	 * can probably be locked without waiting.
+	 */
+	boolean isLocked(PageId p) {
+		return this.locks.isLocked(p);
 	}
 	
 	/**
@@ -158,19 +837,81 @@ public class BufferPool {
 	 */
 	public void transactionComplete(TransactionId tid, boolean commit)
 			throws IOException {
+		Map<PageId, Permissions> pages = this.requested.getOrDefault(tid, new ConcurrentHashMap<>());
+		List<PageId> written = pages.entrySet().stream()
+				.filter(entry -> entry.getValue() == Permissions.READ_WRITE)
+				.map(Map.Entry::getKey)
+				.collect(Collectors.toList());
+		
 		if (commit)
 			this.flushPages(tid);
-		else
-			this.lockInfoTbl.entrySet().stream()
-					.filter(entry -> entry.getKey().first.equals(tid))
-					.filter(entry -> entry.getValue().isWrite())
-//					.collect(Collectors.toList())
-					.forEach(entry -> this.discardPage(entry.getKey().second));
+		else {
+			// pages the transaction wrote to disk (STEAL); a no-op once its
+			// abort record is logged
+			if (this.steal)
+				Database.getLogFile().rollback(tid);
+			for (PageId pid : written) {
+				try {
+					this.restorePage(pid);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				this.discardPage(pid);
+			}
+		}
+		// the pages a transaction completed here rather than through
+		// Transaction logged need its commit or abort record, or recovery
+		// would undo them
+		Database.getLogFile().logCompletion(tid, commit);
+		for (PageId pid : this.recordUndo.pages(tid)) {
+			if (written.contains(pid))
+				this.recordUndo.forget(tid, pid); // discarded, or written whole
+			else
+				this.completeRecords(tid, pid, commit);
+		}
+		this.recordUndo.forget(tid);
 		
-		this.lockInfoTbl.entrySet().stream()
-				.filter(entry -> entry.getKey().first.equals(tid))
-//				.collect(Collectors.toList())
-				.forEach(entry -> entry.getValue().unlock());
+		// what is left of the pages the transaction could modify is now
+		// committed, so their before images can be dropped
+		written.stream()
+				.map(this.pageTableById::get)
+				.filter(Objects::nonNull)
+				.forEach(Page::setBeforeImage);
+		
+		// pins left by iterators that were not closed
+		pages.keySet().forEach(pid -> this.unpin(tid, pid, Integer.MAX_VALUE));
+		
+		this.requested.remove(tid);
+		this.locks.releaseAll(tid);
+	}
+	
+	/**
+	 * Forget the tuples a completing transaction changed on a page under
+	 * record locks, undoing them first if it aborts, and write the page
+	 * unless the transaction wrote it already. The page stays dirty as long
+	 * as other running transactions changed it.
+	 */
+	private void completeRecords(TransactionId tid, PageId pid, boolean commit) throws IOException {
+		// changed pages are dirty until their transactions complete, so the
+		// page can only be gone if it was discarded, e.g. by recovery
+		HeapPage page = (HeapPage) this.pageTableById.get(pid);
+		if (page == null) {
+			this.recordUndo.forget(tid, pid);
+			return;
+		}
+		
+		synchronized (page) {
+			if (!commit) {
+				this.recordUndo.undo(tid, page);
+				this.writePage(this.recordUndo.committed(tid, page), 0);
+				this.metrics.write(pid, false);
+			}
+			TransactionId other = this.recordUndo.forget(tid, pid);
+			page.markDirty(other != null, other);
+			// the slots the transaction emptied, or filled and emptied again,
+			// are free for the others now
+			((HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).updateFreeSpace(page);
+		}
 	}
 	
 	/**
@@ -235,7 +976,7 @@ public class BufferPool {
 	 * NB: Be careful using this routine -- it writes dirty data to disk so will
 	 *     break simpledb if running in NO STEAL mode.
 	 */
-	public synchronized void flushAllPages() throws IOException {
+	public void flushAllPages() throws IOException {
 		new ArrayList<>(this.pageTableById.keySet())
 				.forEach(pid -> {
 					try {
@@ -254,275 +995,454 @@ public class BufferPool {
 	 Also used by B+ tree files to ensure that deleted pages
 	 are removed from the cache, so they can be reused safely
 	 */
-	public synchronized void discardPage(PageId pid) {
-		this.pageTableById.remove(pid);
+	public void discardPage(PageId pid) {
+		Partition part = this.partitionOf(pid);
+		synchronized (part) {
+			// an old version written by an eviction must not overwrite what
+			// the caller writes next
+			this.awaitEviction(part, pid);
+			if (this.pageTableById.remove(pid) != null) {
+				part.policy.pageRemoved(pid);
+				part.accesses.remove(pid);
+				this.size.decrementAndGet();
+			}
+			if (part.arena != null)
+				part.arena.remove(pid);
+			this.committedDirty.remove(pid);
+			this.reclaimed.remove(pid);
+			
+			// the page may have changed on disk since it was read
+			PageLoad load = part.loading.get(pid);
+			if (load != null)
+				load.stale = true;
+		}
 	}
 	
 	/**
-	 * Flushes a certain page to disk
+	 * Flushes a certain page to disk. The page is copied with the latch of
+	 * its partition held and the copy written without it; the page is marked
+	 * clean unless it was modified meanwhile.
 	 * @param pid an ID indicating the page to flush
 	 */
-	private synchronized void flushPage(PageId pid) throws IOException {
-//		assert this.pageTableById.containsKey(pid);
-
-//		if (!this.pageTableById.containsKey(pid))
-//			return;
-		
-		Page page = this.pageTableById.get(pid);
-		if (page != null && page.isDirty() != null) {
-			Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-			page.markDirty(false, null);
+	private void flushPage(PageId pid) throws IOException {
+		Partition part = this.partitionOf(pid);
+		PageImage image;
+		synchronized (part) {
+			Page page = this.pageTableById.get(pid);
+			if (page == null || page.isDirty() == null)
+				return;
+			image = this.copyDirtyPage(page);
 		}
 		
+		this.writeImage(image);
+		synchronized (part) {
+			this.markWritten(image);
+		}
 	}
 	
-	/** Write all pages of the specified transaction to disk.
+	/**
+	 * Copy a dirty page to write it without the latch of its partition, which
+	 * must be held. In STEAL mode, a page of a running transaction is logged
+	 * first, so that the log can undo it. The page is written right away if
+	 * its file cannot decode pages.
 	 */
-	public synchronized void flushPages(TransactionId tid) throws IOException {
-		this.lockInfoTbl.entrySet().stream()
-				.filter(entry -> entry.getKey().first.equals(tid))
-				.filter(entry -> entry.getValue().isWrite())
-				.forEach(entry -> {
-					try {
-						this.flushPage(entry.getKey().second);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				});
+	private PageImage copyDirtyPage(Page page) throws IOException {
+		PageId pid = page.getId();
+		Long lsn = this.committedDirty.get(pid);
+		if (lsn == null && this.steal)
+			lsn = Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
+		
+		byte[] data = page.getPageData();
+		Page copy = Database.getCatalog().getDatabaseFile(pid.getTableId()).decodePage(pid, data.clone());
+		PageImage image = new PageImage(page, data, copy, lsn != null ? lsn : 0);
+		if (copy == null) {
+			this.writePage(page, image.lsn);
+			this.metrics.write(pid, false);
+		}
+		return image;
 	}
 	
 	/**
-	 * Discards a page from the buffer pool.
-	 * Flushes the page to disk to ensure dirty pages are updated on disk.
+	 * Write the copy of a page taken by {@link #copyDirtyPage}, without any
+	 * latch held.
 	 */
-	private synchronized void evictPage() throws DbException {
-		try {
-			PageId scapegoat = this.pageTableById.entrySet().stream()
-					.filter(entry -> entry.getValue().isDirty() == null)
-					.map(Map.Entry::getKey)
-					.findFirst()
-					.orElseThrow(() -> new DbException("食不食油饼"));
-			
-			this.flushPage(scapegoat);
-//			this.lockTbl.remove(scapegoat);
-			this.discardPage(scapegoat);
-		}
-		catch (IOException e) {
-			e.printStackTrace();
-			throw new DbException("Failed to evict page");
+	private void writeImage(PageImage image) throws IOException {
+		if (image.copy != null) {
+			this.writePage(image.copy, image.lsn);
+			this.metrics.write(image.page.getId(), false);
 		}
 	}
 	
-	private void checkAndUpdate(TransactionId tid, Page page) throws DbException {
-		if (!this.pageTableById.containsKey(page.getId()) &&
-				this.pageTableById.size() >= this.numPages)
-			this.evictPage();
-		
-		this.pageTableById.put(page.getId(), page);
+	/**
+	 * Mark a page written from its copy clean, unless it was modified or
+	 * discarded since it was copied. The latch of its partition must be held.
+	 *
+	 * @return whether the page is clean
+	 */
+	private boolean markWritten(PageImage image) {
+		PageId pid = image.page.getId();
+		if (this.pageTableById.get(pid) != image.page
+				|| !Arrays.equals(image.data, image.page.getPageData()))
+			return false;
+		image.page.markDirty(false, null);
+		this.committedDirty.remove(pid, image.lsn);
+		return true;
 	}
 	
-	private static class DependencyGraph {
-		private static class SemaphoreEdge {
-			public final ReadWriteSemaphore semaphore;
-			public final boolean isWrite;
-			
-			public SemaphoreEdge(ReadWriteSemaphore semaphore, boolean isWrite) {
-				this.semaphore = semaphore;
-				this.isWrite = isWrite;
+	/**
+	 * Write a page to disk, after forcing the log up to the specified offset
+	 * if it was not forced yet.
+	 */
+	private void writePage(Page page, long lsn) throws IOException {
+		if (Database.getLogFile().getFlushedOffset() < lsn)
+			Database.getLogFile().force();
+		long start = System.nanoTime();
+		Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+		this.metrics.writeLatency(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Write the committed content of a page an aborting transaction
+	 * modified back to disk, if the background writer had not written it
+	 * yet: the page is about to be discarded.
+	 */
+	private void restorePage(PageId pid) throws IOException {
+		Partition part = this.partitionOf(pid);
+		synchronized (part) {
+			this.awaitEviction(part, pid);
+			Page page = this.pageTableById.get(pid);
+			if (this.reclaimed.remove(pid) && page != null) {
+				this.writePage(page.getBeforeImage(), 0);
+				this.metrics.write(pid, false);
 			}
 		}
+	}
+	
+	/**
+	 * Write up to the specified number of committed pages to disk, for the
+	 * background writer, in table and page number order. Each page is copied
+	 * with the latch of its partition held and the copy written without it,
+	 * unless its file cannot decode pages.
+	 *
+	 * @return the number of pages written
+	 */
+	int writeCommittedPages(int max) throws IOException {
+		List<PageId> batch = this.committedDirty.keySet().stream()
+				.sorted(Comparator.comparingInt(PageId::getTableId)
+						.thenComparingInt(PageId::pageNumber))
+				.limit(max)
+				.collect(Collectors.toList());
 		
-		private static class TransactionEdge {
-			public final TransactionId tid;
-			public final boolean isWrite;
-			
-			public TransactionEdge(TransactionId tid, boolean isWrite) {
-				this.tid = tid;
-				this.isWrite = isWrite;
-			}
-			
-			@Override
-			public boolean equals(Object obj) {
-				if (!(obj instanceof TransactionEdge))
-					return false;
+		int written = 0;
+		for (PageId pid : batch) {
+			Partition part = this.partitionOf(pid);
+			Page copy;
+			long lsn;
+			synchronized (part) {
+				Page page = this.pageTableById.get(pid);
+				Long committed = this.committedDirty.get(pid);
+				if (page == null || committed == null)
+					continue; // evicted, or being modified again
+				lsn = committed;
 				
-				TransactionEdge o = (TransactionEdge) obj;
-				return this.isWrite == o.isWrite && this.tid.equals(o.tid);
+				ByteBuffer buf = PageCodec.encode(page);
+				byte[] data = new byte[buf.remaining()];
+				buf.get(data);
+				copy = Database.getCatalog().getDatabaseFile(pid.getTableId()).decodePage(pid, data);
+				if (copy == null)
+					this.writePage(page, lsn);
 			}
+			if (copy != null)
+				this.writePage(copy, lsn);
 			
-			@Override
-			public int hashCode() {
-				return Objects.hash(this.tid, this.isWrite);
+			synchronized (part) {
+				// the page is clean unless it was written again meanwhile
+				Page page = this.pageTableById.get(pid);
+				if (this.committedDirty.remove(pid, lsn) && page != null)
+					page.markDirty(false, null);
 			}
+			this.metrics.write(pid, true);
+			written++;
+		}
+		return written;
+	}
+	
+	/**
+	 * Write all pages of the specified transaction to disk.
+	 * <p>
+	 * If the background writer is started, or in STEAL / NO-FORCE mode, the
+	 * dirty pages are instead logged, with their before images, and left to
+	 * the background writer or to eviction.
+	 * The log is forced by the commit record, or before any of the pages is
+	 * written.
+	 */
+	public void flushPages(TransactionId tid) throws IOException {
+		if (this.writer != null || this.steal) {
+			this.logPages(tid);
+			return;
 		}
 		
-		private final ConcurrentHashMap<TransactionId, SemaphoreEdge> semaphoreEdges =
-				new ConcurrentHashMap<>();
-		private final ConcurrentHashMap<ReadWriteSemaphore, Set<TransactionEdge>> transactionEdges =
-				new ConcurrentHashMap<>();
+		this.requested.getOrDefault(tid, new ConcurrentHashMap<>()).forEach((pid, perm) -> {
+			if (perm != Permissions.READ_WRITE)
+				return;
+			try {
+				this.flushPage(pid);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
 		
-		public synchronized boolean wait(TransactionId tid, ReadWriteSemaphore semaphore,
-		                                 boolean isWrite) {
-			this.semaphoreEdges.put(tid, new SemaphoreEdge(semaphore, isWrite));
-			
-			// Use a BFS to find cycles
-			boolean cyclic = false;
-			HashSet<TransactionId> vis = new HashSet<TransactionId>() {{ add(tid); }};
-			LinkedList<TransactionId> q = new LinkedList<TransactionId>() {{ add(tid); }};
+		// pages changed under record locks, without the tuples of the other
+		// transactions that changed them; they stay dirty until the
+		// transaction completes
+		Map<PageId, Permissions> pages = this.requested.getOrDefault(tid, new ConcurrentHashMap<>());
+		for (PageId pid : this.recordUndo.pages(tid)) {
+			HeapPage page = (HeapPage) this.pageTableById.get(pid);
+			if (page == null || pages.get(pid) == Permissions.READ_WRITE)
+				continue;
+			synchronized (page) {
+				if (!this.recordUndo.isUnwritten(tid, pid))
+					continue;
+				this.writePage(this.recordUndo.committed(tid, page), 0);
+				this.metrics.write(pid, false);
+				this.recordUndo.written(tid, pid);
+			}
+		}
+	}
+	
+	/**
+	 * Log the pages the specified transaction modified and are not logged
+	 * yet, and hand them to the background writer. The buffer pool is locked
+	 * meanwhile, so that a checkpoint finds either none or all of them.
+	 */
+	private synchronized void logPages(TransactionId tid) throws IOException {
+		LogFile log = Database.getLogFile();
+		for (Map.Entry<PageId, Permissions> entry : this.requested.getOrDefault(tid, new ConcurrentHashMap<>()).entrySet()) {
+			if (entry.getValue() != Permissions.READ_WRITE)
+				continue;
 			
-			while (!q.isEmpty()) {
-				TransactionId cur = q.poll();
-				SemaphoreEdge edge = this.semaphoreEdges.get(cur);
-				
-				if (edge == null)
+			PageId pid = entry.getKey();
+			Partition part = this.partitionOf(pid);
+			synchronized (part) {
+				Page page = this.pageTableById.get(pid);
+				if (page == null || page.isDirty() == null || this.committedDirty.containsKey(pid))
 					continue;
 				
-				for (TransactionEdge e : this.transactionEdges.getOrDefault(edge.semaphore, new HashSet<>())) {
-					if (!(edge.isWrite || e.isWrite) || cur.equals(e.tid))
-						continue;
-					
-					if (vis.contains(e.tid)) {
-						cyclic = true;
+				this.committedDirty.put(pid, log.logWrite(tid, page.getBeforeImage(), page));
+				this.reclaimed.remove(pid);
+			}
+		}
+	}
+	
+	/**
+	 * Discards a page from the buffer pool, chosen among the clean, unpinned
+	 * pages by the replacement policy of the partition of the specified page,
+	 * or of the following ones if it has none. Only one latch is held at a
+	 * time. A committed page the background writer has not written yet can
+	 * be chosen too, and any dirty page in STEAL / NO-FORCE mode; it is
+	 * copied and marked as being evicted with the latch held, and written
+	 * without it. It is only discarded if it was not modified meanwhile.
+	 */
+	private void evictPage(PageId pid) throws DbException {
+		if (!this.evictPage(this.partitionIndexOf(pid)))
+			throw new DbException("食不食油饼");
+	}
+	
+	/**
+	 * Discard a page as {@link #evictPage(PageId)}, starting with the
+	 * partition of the specified index.
+	 *
+	 * @return false if no page could be evicted
+	 */
+	private boolean evictPage(int start) throws DbException {
+		for (int i = 0; i < this.partitions.length; i++) {
+			Partition part = this.partitions[(start + i) % this.partitions.length];
+			while (true) {
+				PageImage image;
+				synchronized (part) {
+					PageId scapegoat = part.policy.chooseVictim(victim -> {
+						Page page = this.pageTableById.get(victim);
+						return page != null && !part.pins.containsKey(victim) && !part.evicting.contains(victim)
+								&& (page.isDirty() == null || this.committedDirty.containsKey(victim) || this.steal);
+					});
+					if (scapegoat == null)
 						break;
-					}
 					
-					vis.add(e.tid);
-					q.add(e.tid);
+					Page page = this.pageTableById.get(scapegoat);
+					if (page.isDirty() == null) {
+						this.evict(part, page);
+						return true;
+					}
+					try {
+						image = this.copyDirtyPage(page);
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+						throw new DbException("Failed to evict page");
+					}
+					part.evicting.add(scapegoat);
+				}
+				
+				PageId pid = image.page.getId();
+				try {
+					this.writeImage(image);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+					throw new DbException("Failed to evict page");
+				}
+				finally {
+					synchronized (part) {
+						part.evicting.remove(pid);
+						part.notifyAll();
+					}
+				}
+				
+				synchronized (part) {
+					// a page modified or pinned meanwhile stays; try again
+					if (this.markWritten(image) && !part.pins.containsKey(pid)) {
+						this.evict(part, image.page);
+						return true;
+					}
 				}
 			}
-			
-			if (cyclic)
-				this.semaphoreEdges.remove(tid);
-			
-			return !cyclic;
-		}
-		
-		public synchronized void acquire(TransactionId tid, ReadWriteSemaphore semaphore,
-		                                 boolean isWrite) {
-			this.semaphoreEdges.remove(tid);
-			this.transactionEdges.computeIfAbsent(semaphore, foo -> new HashSet<>())
-					.add(new TransactionEdge(tid, isWrite));
-		}
-		
-		public synchronized void release(TransactionId tid, ReadWriteSemaphore semaphore,
-		                                 boolean isWrite) {
-			Set<TransactionEdge> st = this.transactionEdges.get(semaphore);
-			st.remove(new TransactionEdge(tid, isWrite));
-			
-			if (st.isEmpty())
-				this.transactionEdges.remove(semaphore);
-		}
-		
-		public synchronized void upgrade(TransactionId tid, ReadWriteSemaphore semaphore) {
-			this.release(tid, semaphore, false);
-			this.acquire(tid, semaphore, true);
 		}
+		return false;
 	}
 	
-	private class ReadWriteSemaphore {
-		private final Semaphore read, write, upgrade;
-		private AtomicInteger count;
-		
-		public ReadWriteSemaphore() {
-			this.read = new Semaphore(1);
-			this.write = new Semaphore(1);
-			this.upgrade = new Semaphore(1);
-			this.count = new AtomicInteger(0);
-		}
-		
-		public void lockRead(TransactionId tid) throws TransactionAbortedException {
-			if (!BufferPool.this.graph.wait(tid, this, false))
-				throw new TransactionAbortedException();
-			
-			this.read.acquireUninterruptibly();
-			if (this.count.incrementAndGet() == 1)
-				this.write.acquireUninterruptibly();
-			this.read.release();
-			
-			BufferPool.this.graph.acquire(tid, this, false);
-		}
-		
-		public void unlockRead(TransactionId tid) {
-			this.read.acquireUninterruptibly();
-			if (this.count.decrementAndGet() == 0)
-				this.write.release();
-			this.read.release();
-			
-			BufferPool.this.graph.release(tid, this, false);
+	/**
+	 * Discard a clean page chosen for eviction, with the latch of its
+	 * partition held.
+	 */
+	private void evict(Partition part, Page page) {
+		this.discardPage(page.getId());
+		this.metrics.eviction(page.getId());
+		if (part.arena != null)
+			part.arena.put(page);
+	}
+	
+	/**
+	 * Reserve a frame for the specified page, about to be read: recycle the
+	 * oldest clean page of the ring if it is full, and evict pages chosen by
+	 * the replacement policy while the buffer pool is still full. The frame
+	 * must be given back if the page is not added.
+	 */
+	private void makeRoom(PageId pid, BufferRing ring) throws DbException {
+		PageId old;
+		while (ring != null && (old = ring.pollIfFull()) != null) {
+			Partition part = this.partitionOf(old);
+			synchronized (part) {
+				Page page = this.pageTableById.get(old);
+				if (page != null && page.isDirty() == null && !part.pins.containsKey(old)) {
+					this.discardPage(old);
+					this.metrics.eviction(old);
+					break;
+				}
+			}
 		}
 		
-		public void lockWrite(TransactionId tid) throws TransactionAbortedException {
-			if (!BufferPool.this.graph.wait(tid, this, true))
-				throw new TransactionAbortedException();
-			
-			this.write.acquireUninterruptibly();
-			BufferPool.this.graph.acquire(tid, this, true);
+		while (this.size.incrementAndGet() > this.numPages) {
+			this.size.decrementAndGet();
+			this.evictPage(pid);
 		}
-		
-		public void unlockWrite(TransactionId tid) {
-			this.write.release();
-			BufferPool.this.graph.release(tid, this, true);
+	}
+	
+	private void checkAndUpdate(TransactionId tid, Page page) throws DbException {
+		PageId pid = page.getId();
+		Partition part = this.partitionOf(pid);
+		boolean reserved = false;
+		if (!this.pageTableById.containsKey(pid)) {
+			this.makeRoom(pid, null);
+			reserved = true;
 		}
 		
-		public void upgrade(TransactionId tid) throws TransactionAbortedException {
-			if (!BufferPool.this.graph.wait(tid, this, true))
-				throw new TransactionAbortedException(); // is this right?
-			
-			this.read.acquireUninterruptibly();
-			this.upgrade.acquireUninterruptibly();
-			
-			if (this.count.decrementAndGet() == 0)
-				this.write.release();
-			
-			this.read.release();
-			this.write.acquireUninterruptibly();
-			this.upgrade.release();
-			
-			BufferPool.this.graph.upgrade(tid, this);
+		synchronized (part) {
+			boolean added = this.pageTableById.put(pid, page) == null;
+			if (added && !reserved)
+				this.size.incrementAndGet(); // evicted meanwhile
+			else if (!added && reserved)
+				this.size.decrementAndGet();
+			part.policy.pageAdded(pid);
+			part.accesses.putIfAbsent(pid, 1);
 		}
 	}
 	
-	private static class LockInfo {
-		private enum State { FREE, READ, WRITE }
-		
-		private final TransactionId tid;
-		private final ReadWriteSemaphore lock;
-		private State state;
-		
-		public LockInfo(TransactionId tid, ReadWriteSemaphore lock) {
-			this.tid = tid;
-			this.lock = lock;
-			this.state = State.FREE;
-		}
-		
-		public void update(boolean isWrite) throws TransactionAbortedException {
-			if (this.state == State.FREE) {
-				if (!isWrite) {
-					this.lock.lockRead(this.tid);
-					this.state = State.READ;
-				}
-				else {
-					this.lock.lockWrite(tid);
-					this.state = State.WRITE;
-				}
+	/**
+	 * Wait until the specified page is no longer being written by an
+	 * eviction, with the latch of its partition held.
+	 */
+	private void awaitEviction(Partition part, PageId pid) {
+		boolean interrupted = false;
+		while (part.evicting.contains(pid)) {
+			try {
+				part.wait();
 			}
-			else if (this.state == State.READ && isWrite) {
-				this.lock.upgrade(this.tid);
-				this.state = State.WRITE;
+			catch (InterruptedException e) {
+				interrupted = true;
 			}
 		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private int partitionIndexOf(PageId pid) {
+		return Math.floorMod(pid.hashCode(), this.partitions.length);
+	}
+	
+	private Partition partitionOf(PageId pid) {
+		return this.partitions[this.partitionIndexOf(pid)];
+	}
+	
+	/**
+	 * A partition of the buffer pool. Its monitor is its latch, and guards
+	 * its replacement policy, its arena, the reads in progress, the pin
+	 * counts, the evictions in progress and the changes to pageTableById of
+	 * the pages that hash to it.
+	 */
+	private static class Partition {
+		private final ReplacementPolicy policy;
+		private final PageArena arena; // null if pages are not kept off the heap
+		private final HashMap<PageId, PageLoad> loading = new HashMap<>();
+		// pinned pages and the number of pins of each transaction on them
+		private final HashMap<PageId, HashMap<TransactionId, Integer>> pins = new HashMap<>();
+		// dirty pages chosen for eviction and being written
+		private final HashSet<PageId> evicting = new HashSet<>();
+		// the number of requests for each cached page since it was read
+		private final HashMap<PageId, Integer> accesses = new HashMap<>();
 		
-		public boolean isWrite() {
-			return this.state == State.WRITE;
+		public Partition(ReplacementPolicy policy, PageArena arena) {
+			this.policy = policy;
+			this.arena = arena;
 		}
+	}
+	
+	/**
+	 * The placeholder of a page being read from disk, which other requests for
+	 * the page wait on. It is completed with the page once it was added to the
+	 * buffer pool, or with null if the read failed or the page was discarded
+	 * meanwhile.
+	 */
+	private static class PageLoad {
+		private final CompletableFuture<Page> page = new CompletableFuture<>();
+		// guarded by the partition
+		private boolean stale = false;
+	}
+	
+	/**
+	 * A dirty page copied with the latch of its partition held, to be written
+	 * without it.
+	 */
+	private static class PageImage {
+		private final Page page;
+		private final byte[] data; // the content of the page when copied
+		private final Page copy; // null if the page was written already
+		private final long lsn; // the log offset to force before writing
 		
-		public void unlock() {
-			if (this.state == State.READ)
-				this.lock.unlockRead(this.tid);
-			else if (this.state == State.WRITE)
-				this.lock.unlockWrite(this.tid);
-			
-			this.state = State.FREE;
+		public PageImage(Page page, byte[] data, Page copy, long lsn) {
+			this.page = page;
+			this.data = data;
+			this.copy = copy;
+			this.lsn = lsn;
 		}
 	}
 }
@@ -0,0 +1,308 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMetrics counts what a {@link BufferPool} does: hits, misses,
+ * evictions and dirty page writes, globally and per table, and how long page
+ * reads, page writes and lock requests take. The counters are striped
+ * ({@link LongAdder}), so that they can stay on in production.
+ * <p>
+ * {@link #snapshot()} reads all of them at once, for tests and benchmarks;
+ * the buffer pool of the {@link Database} is also published over JMX, see
+ * {@link BufferPoolMetricsMXBean}.
+ */
+public class BufferPoolMetrics implements BufferPoolMetricsMXBean {
+	/** The JMX name the metrics of the buffer pool of the Database have. */
+	public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+	private final Supplier<Collection<Page>> cached;
+
+	private final Counters global = new Counters();
+	private final ConcurrentHashMap<Integer, Counters> tables = new ConcurrentHashMap<>();
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+
+	/**
+	 * @param cached the pages cached by the buffer pool, for its occupancy
+	 */
+	BufferPoolMetrics(Supplier<Collection<Page>> cached) {
+		this.cached = cached;
+	}
+
+	void hit(PageId pid) {
+		this.global.hits.increment();
+		this.table(pid).hits.increment();
+	}
+
+	void miss(PageId pid) {
+		this.global.misses.increment();
+		this.table(pid).misses.increment();
+	}
+
+	void eviction(PageId pid) {
+		this.global.evictions.increment();
+		this.table(pid).evictions.increment();
+	}
+
+	void write(PageId pid, boolean background) {
+		(background ? this.global.backgroundWrites : this.global.foregroundWrites).increment();
+		(background ? this.table(pid).backgroundWrites : this.table(pid).foregroundWrites).increment();
+	}
+
+	void readLatency(long nanos) {
+		this.readLatency.record(nanos);
+	}
+
+	void writeLatency(long nanos) {
+		this.writeLatency.record(nanos);
+	}
+
+	void lockWait(long nanos) {
+		this.lockWait.record(nanos);
+	}
+
+	private Counters table(PageId pid) {
+		Counters counters = this.tables.get(pid.getTableId());
+		return counters != null ? counters
+				: this.tables.computeIfAbsent(pid.getTableId(), foo -> new Counters());
+	}
+
+	public long getHits() {
+		return this.global.hits.sum();
+	}
+
+	public long getMisses() {
+		return this.global.misses.sum();
+	}
+
+	public double getHitRatio() {
+		return this.global.counts().getHitRatio();
+	}
+
+	public long getEvictions() {
+		return this.global.evictions.sum();
+	}
+
+	public long getForegroundWrites() {
+		return this.global.foregroundWrites.sum();
+	}
+
+	public long getBackgroundWrites() {
+		return this.global.backgroundWrites.sum();
+	}
+
+	public LatencyHistogram.Snapshot getReadLatency() {
+		return this.readLatency.snapshot();
+	}
+
+	public LatencyHistogram.Snapshot getWriteLatency() {
+		return this.writeLatency.snapshot();
+	}
+
+	public LatencyHistogram.Snapshot getLockWait() {
+		return this.lockWait.snapshot();
+	}
+
+	public Map<String, Integer> getOccupancy() {
+		TreeMap<String, Integer> occupancy = new TreeMap<>();
+		for (Page page : this.cached.get())
+			occupancy.merge(page.getClass().getSimpleName(), 1, Integer::sum);
+		return occupancy;
+	}
+
+	public Map<String, TableCounts> getTables() {
+		TreeMap<String, TableCounts> tables = new TreeMap<>();
+		for (Map.Entry<Integer, TableCounts> entry : this.snapshot().getTables().entrySet()) {
+			String name;
+			try {
+				name = Database.getCatalog().getTableName(entry.getKey());
+			}
+			catch (NoSuchElementException e) {
+				name = String.valueOf(entry.getKey()); // dropped, or a temporary file
+			}
+			tables.put(name, entry.getValue());
+		}
+		return tables;
+	}
+
+	public void reset() {
+		this.global.reset();
+		this.tables.clear();
+		this.readLatency.reset();
+		this.writeLatency.reset();
+		this.lockWait.reset();
+	}
+
+	/**
+	 * @return all the metrics of the buffer pool; what happens meanwhile
+	 *         may be partly included
+	 */
+	public Snapshot snapshot() {
+		HashMap<Integer, TableCounts> tables = new HashMap<>();
+		this.tables.forEach((id, counters) -> tables.put(id, counters.counts()));
+		return new Snapshot(this.global.counts(), tables, this.getReadLatency(),
+				this.getWriteLatency(), this.getLockWait(), this.getOccupancy());
+	}
+
+	/**
+	 * Publish these metrics over JMX as {@value #OBJECT_NAME}, in place of
+	 * the metrics published before if any.
+	 */
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		}
+		catch (JMException e) {
+			e.printStackTrace(); // metrics are still available from snapshot()
+		}
+	}
+
+	/** The counters of the whole buffer pool or of one table. */
+	private static class Counters {
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+		private final LongAdder foregroundWrites = new LongAdder();
+		private final LongAdder backgroundWrites = new LongAdder();
+
+		TableCounts counts() {
+			return new TableCounts(this.hits.sum(), this.misses.sum(), this.evictions.sum(),
+					this.foregroundWrites.sum(), this.backgroundWrites.sum());
+		}
+
+		void reset() {
+			this.hits.reset();
+			this.misses.reset();
+			this.evictions.reset();
+			this.foregroundWrites.reset();
+			this.backgroundWrites.reset();
+		}
+	}
+
+	/**
+	 * The counters of the whole buffer pool or of one table at some point.
+	 */
+	public static class TableCounts {
+		private final long hits, misses, evictions, foregroundWrites, backgroundWrites;
+
+		TableCounts(long hits, long misses, long evictions, long foregroundWrites,
+		            long backgroundWrites) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.foregroundWrites = foregroundWrites;
+			this.backgroundWrites = backgroundWrites;
+		}
+
+		public long getHits() {
+			return this.hits;
+		}
+
+		public long getMisses() {
+			return this.misses;
+		}
+
+		/**
+		 * @return the fraction of the page requests that found the page
+		 *         cached, or 0 if there was none
+		 */
+		public double getHitRatio() {
+			long requests = this.hits + this.misses;
+			return requests == 0 ? 0 : (double) this.hits / requests;
+		}
+
+		public long getEvictions() {
+			return this.evictions;
+		}
+
+		public long getForegroundWrites() {
+			return this.foregroundWrites;
+		}
+
+		public long getBackgroundWrites() {
+			return this.backgroundWrites;
+		}
+	}
+
+	/**
+	 * All the metrics of a buffer pool at some point.
+	 */
+	public static class Snapshot {
+		private final TableCounts global;
+		private final Map<Integer, TableCounts> tables;
+		private final LatencyHistogram.Snapshot readLatency, writeLatency, lockWait;
+		private final Map<String, Integer> occupancy;
+
+		Snapshot(TableCounts global, Map<Integer, TableCounts> tables,
+		         LatencyHistogram.Snapshot readLatency, LatencyHistogram.Snapshot writeLatency,
+		         LatencyHistogram.Snapshot lockWait, Map<String, Integer> occupancy) {
+			this.global = global;
+			this.tables = Collections.unmodifiableMap(tables);
+			this.readLatency = readLatency;
+			this.writeLatency = writeLatency;
+			this.lockWait = lockWait;
+			this.occupancy = Collections.unmodifiableMap(occupancy);
+		}
+
+		/**
+		 * @return the counters of the whole buffer pool
+		 */
+		public TableCounts getGlobal() {
+			return this.global;
+		}
+
+		/**
+		 * @return the counters of the tables the buffer pool cached pages
+		 *         of, by table id
+		 */
+		public Map<Integer, TableCounts> getTables() {
+			return this.tables;
+		}
+
+		/**
+		 * @return the counters of the specified table, all 0 if the buffer
+		 *         pool did not cache any of its pages
+		 */
+		public TableCounts getTable(int tableId) {
+			return this.tables.getOrDefault(tableId, new TableCounts(0, 0, 0, 0, 0));
+		}
+
+		public LatencyHistogram.Snapshot getReadLatency() {
+			return this.readLatency;
+		}
+
+		public LatencyHistogram.Snapshot getWriteLatency() {
+			return this.writeLatency;
+		}
+
+		public LatencyHistogram.Snapshot getLockWait() {
+			return this.lockWait;
+		}
+
+		/**
+		 * @return the number of cached pages, by page class
+		 */
+		public Map<String, Integer> getOccupancy() {
+			return this.occupancy;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link BufferPoolMetrics}, published over JMX
+ * as {@value BufferPoolMetrics#OBJECT_NAME} for the buffer pool of the
+ * {@link Database}.
+ */
+public interface BufferPoolMetricsMXBean {
+	/** @return the number of page requests that found the page cached */
+	long getHits();
+
+	/** @return the number of page requests that read the page from disk */
+	long getMisses();
+
+	/** @return the fraction of the page requests that found the page cached */
+	double getHitRatio();
+
+	/** @return the number of pages evicted from the buffer pool */
+	long getEvictions();
+
+	/** @return the number of dirty pages written by transactions */
+	long getForegroundWrites();
+
+	/** @return the number of dirty pages written by the background writer */
+	long getBackgroundWrites();
+
+	/** @return the durations of the page reads from disk */
+	LatencyHistogram.Snapshot getReadLatency();
+
+	/** @return the durations of the page writes to disk */
+	LatencyHistogram.Snapshot getWriteLatency();
+
+	/** @return the durations page requests waited for their lock */
+	LatencyHistogram.Snapshot getLockWait();
+
+	/** @return the number of cached pages, by page class */
+	Map<String, Integer> getOccupancy();
+
+	/** @return the counters of each table, by table name */
+	Map<String, BufferPoolMetrics.TableCounts> getTables();
+
+	/** Reset the counters and histograms, e.g. before a benchmark. */
+	void reset();
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small, private set of buffer pool frames for one large
+ * sequential scan. Pages the scan has to read from disk are put in the ring,
+ * and once the ring is full each new page replaces the oldest page of the
+ * ring instead of a page chosen by the replacement policy. A scan over a
+ * table much larger than the buffer pool therefore only ever occupies a few
+ * frames, and does not push out the pages other queries keep reusing, e.g.
+ * the upper levels of an index.
+ * <p>
+ * Pages the scan finds already cached are used in place and do not enter
+ * the ring. A page of the ring that was dirtied meanwhile cannot be
+ * replaced under NO-STEAL, nor can a pinned page; it simply leaves the ring.
+ * <p>
+ * Rings are only used through {@link BufferPool#getPage(TransactionId,
+ * PageId, Permissions, BufferRing)}. A ring is shared by its scan and the
+ * read-ahead of the scan, so its operations are synchronized.
+ */
+public class BufferRing {
+	/** The smallest ring handed out to a scan, in pages. */
+	public static final int MIN_RING_PAGES = 8;
+	/** The largest ring handed out to a scan, in pages. */
+	public static final int MAX_RING_PAGES = 16;
+
+	private final int size;
+	// pages read into the ring, oldest first
+	private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+
+	/**
+	 * @param size the number of pages of the ring
+	 */
+	public BufferRing(int size) {
+		this.size = Math.max(size, 1);
+	}
+
+	/**
+	 * Returns a ring for a sequential scan over a table of the specified
+	 * number of pages, or null if the table is small enough to be cached in
+	 * the buffer pool like any other: no larger than the buffer pool and its
+	 * page arena. The ring takes an eighth of the buffer pool, but no less
+	 * than {@link #MIN_RING_PAGES} so that read-ahead still has room to work.
+	 * A buffer pool smaller than two such rings gets no ring at all: pages
+	 * prefetched into the ring would take the frames the scan itself needs.
+	 */
+	public static BufferRing forScan(int tablePages) {
+		BufferPool pool = Database.getBufferPool();
+		int poolPages = pool.getNumPages();
+		if (tablePages <= poolPages + pool.getNumArenaPages() || poolPages < 2 * MIN_RING_PAGES)
+			return null;
+		return new BufferRing(Math.max(MIN_RING_PAGES, Math.min(MAX_RING_PAGES, poolPages / 8)));
+	}
+
+	/**
+	 * @return the number of pages of the ring
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the oldest page of the ring, removed from it, if a new page
+	 *         must replace a page of the ring; null otherwise
+	 */
+	synchronized PageId pollIfFull() {
+		return this.pages.size() >= this.size ? this.pages.poll() : null;
+	}
+
+	synchronized void add(PageId pid) {
+		this.pages.add(pid);
+	}
+}
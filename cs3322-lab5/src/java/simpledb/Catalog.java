@@ -69,8 +69,10 @@ public class Catalog {
 	 * @param pkeyField the name of the primary key field
 	 */
 	public void addTable(DbFile file, String name, String pkeyField) {
-		this.tableById.put(file.getId(), new TableItem(file, name, pkeyField));
+		TableItem replaced = this.tableById.put(file.getId(), new TableItem(file, name, pkeyField));
 		this.idTableByName.put(name, file.getId());
+		if (replaced != null && replaced.file != file)
+			Catalog.close(replaced.file);
 	}
 	
 	public void addTable(DbFile file, String name) {
@@ -145,12 +147,31 @@ public class Catalog {
 	
 	/** Delete all tables from the catalog */
 	public void clear() {
+		this.tableById.values().forEach(item -> Catalog.close(item.file));
 		this.tableById.clear();
 		this.idTableByName.clear();
 	}
 	
+	/**
+	 * Close the file of a table dropped from the catalog.
+	 */
+	private static void close(DbFile file) {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * Reads the schema from a file and creates the appropriate tables in the database.
+	 * Each line describes one table as
+	 * <pre>
+	 *     name (field type [pk], field type [pk], ...) [using format]
+	 * </pre>
+	 * where format is <code>slotted</code> for a {@link SlottedHeapFile} or
+	 * <code>pax</code> for a {@link PaxHeapFile}; tables without it are
+	 * stored in a {@link HeapFile}.
 	 * @param catalogFile .
 	 */
 	public void loadSchema(String catalogFile) {
@@ -191,7 +212,24 @@ public class Catalog {
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
 				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+				
+				// an optional "using <format>" after the fields picks the page format
+				File file = new File(baseFolder+"/"+name + ".dat");
+				String[] opts = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+				HeapFile tabHf;
+				if (opts.length == 1 && opts[0].isEmpty())
+					tabHf = new HeapFile(file, t);
+				else if (opts.length == 2 && opts[0].equalsIgnoreCase("using")
+						&& opts[1].equalsIgnoreCase("slotted"))
+					tabHf = new SlottedHeapFile(file, t);
+				else if (opts.length == 2 && opts[0].equalsIgnoreCase("using")
+						&& opts[1].equalsIgnoreCase("pax"))
+					tabHf = new PaxHeapFile(file, t);
+				else {
+					System.out.println("Unknown table option " + String.join(" ", opts));
+					System.exit(0);
+					return;
+				}
 				addTable(tabHf,name,primaryKey);
 				System.out.println("Added table : " + name + " with schema " + t);
 			}
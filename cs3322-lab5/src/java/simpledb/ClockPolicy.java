@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy approximates LRU with one reference bit per frame: a clock hand
+ * sweeps the frames, clearing reference bits, and evicts the first page that
+ * has not been referenced since the hand last passed it.
+ * <p>
+ * This is the default policy of the {@link BufferPool}.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	private final HashMap<PageId, Integer> frames = new HashMap<>();
+	private final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+	private PageId[] pages;
+	private boolean[] referenced;
+	private int hand = 0;
+
+	/**
+	 * @param capacity the number of pages of the buffer pool partition
+	 */
+	public ClockPolicy(int capacity) {
+		this.pages = new PageId[Math.max(capacity, 1)];
+		this.referenced = new boolean[this.pages.length];
+		for (int i = 0; i < this.pages.length; i++)
+			this.freeFrames.add(i);
+	}
+
+	public void pageAdded(PageId pid) {
+		Integer frame = this.frames.get(pid);
+		if (frame == null) {
+			if (this.freeFrames.isEmpty())
+				this.grow();
+			frame = this.freeFrames.poll();
+			this.pages[frame] = pid;
+			this.frames.put(pid, frame);
+		}
+		this.referenced[frame] = true;
+	}
+
+	/**
+	 * Make room for more pages than the capacity, e.g. while the buffer pool
+	 * replaces a page it could not evict yet.
+	 */
+	private void grow() {
+		int n = this.pages.length;
+		this.pages = Arrays.copyOf(this.pages, n * 2);
+		this.referenced = Arrays.copyOf(this.referenced, n * 2);
+		for (int i = n; i < n * 2; i++)
+			this.freeFrames.add(i);
+	}
+
+	public void pageAccessed(PageId pid) {
+		Integer frame = this.frames.get(pid);
+		if (frame != null)
+			this.referenced[frame] = true;
+	}
+
+	public void pageRemoved(PageId pid) {
+		Integer frame = this.frames.remove(pid);
+		if (frame != null) {
+			this.pages[frame] = null;
+			this.referenced[frame] = false;
+			this.freeFrames.add(frame);
+		}
+	}
+
+	public PageId chooseVictim(Predicate<PageId> evictable) {
+		// two turns clear every reference bit, so a page that can be evicted
+		// is found by then if there is one
+		for (int i = 0; i < 2 * this.pages.length; i++) {
+			int frame = this.hand;
+			this.hand = (this.hand + 1) % this.pages.length;
+
+			PageId pid = this.pages[frame];
+			if (pid == null)
+				continue;
+			if (this.referenced[frame])
+				this.referenced[frame] = false;
+			else if (evictable.test(pid)) {
+				this.pageRemoved(pid);
+				return pid;
+			}
+		}
+		return null;
+	}
+}
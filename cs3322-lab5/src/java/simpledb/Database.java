@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
 
 /**
  * Database is a class that initializes several static variables used by the
@@ -21,9 +22,14 @@ public class Database {
     private final static String LOG_FILE_NAME = "log";
     private final LogFile _logfile;
 
+    // file handles outlive reset(), so they are shared by all instances;
+    // reset() closes their channels, which are reopened if used again
+    private final static FileChannelManager _channels = new FileChannelManager();
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getMetrics().register();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOG_FILE_NAME));
@@ -45,6 +51,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the manager of the open file handles used for page I/O */
+    public static FileChannelManager getFileChannelManager() {
+        return _channels;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -55,11 +66,38 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the specified replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, IntFunction<ReplacementPolicy> policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the specified replacement policy and number of partitions and
+     * return it
+     */
+    public static BufferPool resetBufferPool(int pages, IntFunction<ReplacementPolicy> policy,
+            int partitions) {
+        return resetBufferPool(new BufferPool(pages, policy, partitions));
+    }
+
+    /**
+     * Method used for testing -- install the specified buffer pool, e.g. one
+     * with a page arena, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
+            pool.getMetrics().register();
         } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
             e.printStackTrace();
         }
@@ -69,6 +107,11 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        try {
+            _channels.closeAll();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         _instance.set(new Database());
     }
 
@@ -19,6 +19,38 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Construct the specified page from the bytes {@link Page#writePageData}
+     * wrote for it, without reading it from disk. The buffer pool uses this
+     * for the pages it keeps serialized off the heap, see {@link PageArena}.
+     *
+     * @return the page, or null if this file cannot decode pages, in which
+     *         case the page is read from disk again
+     */
+    default Page decodePage(PageId id, byte[] data) {
+        return null;
+    }
+
+    /**
+     * @return whether tuples of this file are inserted and deleted under
+     *         record locks while the buffer pool uses them, see
+     *         {@link BufferPool#setRecordLocking(boolean)}; otherwise the
+     *         file locks whole pages as usual
+     */
+    default boolean supportsRecordLocking() {
+        return false;
+    }
+
+    /**
+     * Release what the file keeps open, e.g. its channel, once its table is
+     * dropped from the catalog. The file is opened again if it is used
+     * afterwards.
+     *
+     * @throws IOException if closing fails
+     */
+    default void close() throws IOException {
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -13,6 +14,13 @@ public interface Field extends Serializable {
 	 * @param dos The DataOutputStream to write to.
 	 */
 	void serialize(DataOutputStream dos) throws IOException;
+
+	/**
+	 * Write the bytes representing this field to the specified buffer, in
+	 * the same format as {@link #serialize(DataOutputStream)}.
+	 * @param buf The buffer to write to.
+	 */
+	void serialize(ByteBuffer buf);
 	
 	/**
 	 * Compare the value of this field object to the passed in value.
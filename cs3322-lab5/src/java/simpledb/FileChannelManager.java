@@ -0,0 +1,226 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FileChannelManager hands out long-lived handles on the files backing
+ * DbFiles. Page I/O goes through positional {@link FileChannel} reads and
+ * writes on a handle that stays open for the lifetime of the table, instead
+ * of opening and closing the file for every page.
+ * <p>
+ * Each DbFile owns its own {@link Handle}, so a file that is deleted and
+ * re-created under the same path by another table never sees a stale channel.
+ * The manager keeps track of every open handle and counts opens, reads,
+ * writes and bytes moved across all of them.
+ *
+ * @Threadsafe
+ */
+public class FileChannelManager {
+
+	private final Set<Handle> handles = ConcurrentHashMap.newKeySet();
+
+	private final LongAdder opens = new LongAdder();
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+
+	/**
+	 * Creates a handle on the specified file. The underlying channel is
+	 * opened lazily on first access (creating the file if needed) and is
+	 * kept open until {@link Handle#close()} is called.
+	 */
+	public Handle open(File f) {
+		return new Handle(f.getAbsoluteFile());
+	}
+
+	/**
+	 * Close every handle handed out by this manager; a handle used again
+	 * afterwards is reopened.
+	 *
+	 * @throws IOException the first failure to close a channel, once all
+	 *         of them were closed
+	 */
+	public void closeAll() throws IOException {
+		IOException failure = null;
+		for (Handle handle : new ArrayList<>(this.handles)) {
+			try {
+				handle.close();
+			}
+			catch (IOException e) {
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/** @return the number of channels opened so far */
+	public long getOpens() {
+		return this.opens.sum();
+	}
+
+	/** @return the number of positional reads issued so far */
+	public long getReads() {
+		return this.reads.sum();
+	}
+
+	/** @return the number of positional writes issued so far */
+	public long getWrites() {
+		return this.writes.sum();
+	}
+
+	public long getBytesRead() {
+		return this.bytesRead.sum();
+	}
+
+	public long getBytesWritten() {
+		return this.bytesWritten.sum();
+	}
+
+	/** @return the number of handles whose channel is currently open */
+	public int getOpenHandles() {
+		return this.handles.size();
+	}
+
+	public void resetStats() {
+		this.opens.reset();
+		this.reads.reset();
+		this.writes.reset();
+		this.bytesRead.reset();
+		this.bytesWritten.reset();
+	}
+
+	/**
+	 * A handle on one file. Reads and writes are positional, so a single
+	 * handle can be shared by any number of threads.
+	 */
+	public class Handle {
+		private final File file;
+		private volatile FileChannel channel;
+
+		private Handle(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return this.file;
+		}
+
+		/**
+		 * @return the open channel of this handle, (re)opening it if it has
+		 *         never been opened or was closed, e.g. by an interrupt.
+		 */
+		public FileChannel channel() throws IOException {
+			FileChannel ch = this.channel;
+			if (ch != null && ch.isOpen())
+				return ch;
+
+			synchronized (this) {
+				if (this.channel == null || !this.channel.isOpen()) {
+					this.channel = FileChannel.open(this.file.toPath(),
+							StandardOpenOption.CREATE,
+							StandardOpenOption.READ,
+							StandardOpenOption.WRITE);
+					FileChannelManager.this.opens.increment();
+					FileChannelManager.this.handles.add(this);
+				}
+				return this.channel;
+			}
+		}
+
+		/**
+		 * Read from the file into dst starting at the given position, until dst
+		 * is full or the end of the file is reached.
+		 *
+		 * @return the number of bytes read, which is less than
+		 *         dst.remaining() only if the end of the file was reached
+		 */
+		public int read(ByteBuffer dst, long position) throws IOException {
+			int total = 0;
+			while (dst.hasRemaining()) {
+				int n = this.transfer(dst, position + total, false);
+				if (n < 0)
+					break;
+				total += n;
+			}
+
+			FileChannelManager.this.reads.increment();
+			FileChannelManager.this.bytesRead.add(total);
+			return total;
+		}
+
+		/** Write all of src to the file starting at the given position. */
+		public void write(ByteBuffer src, long position) throws IOException {
+			int total = 0;
+			while (src.hasRemaining())
+				total += this.transfer(src, position + total, true);
+
+			FileChannelManager.this.writes.increment();
+			FileChannelManager.this.bytesWritten.add(total);
+		}
+
+		/**
+		 * Issue a single positional read or write. If the channel was closed
+		 * under us by another thread being interrupted, reopen it and retry
+		 * once; if this thread is the one interrupted, give up.
+		 */
+		private int transfer(ByteBuffer buf, long position, boolean isWrite)
+				throws IOException {
+			try {
+				FileChannel ch = this.channel();
+				return isWrite ? ch.write(buf, position) : ch.read(buf, position);
+			}
+			catch (ClosedChannelException e) {
+				if (e instanceof ClosedByInterruptException)
+					throw e;
+
+				FileChannel ch = this.channel();
+				return isWrite ? ch.write(buf, position) : ch.read(buf, position);
+			}
+		}
+
+		/** @return the current size of the file in bytes. */
+		public long size() throws IOException {
+			try {
+				return this.channel().size();
+			}
+			catch (ClosedChannelException e) {
+				if (e instanceof ClosedByInterruptException)
+					throw e;
+				return this.channel().size();
+			}
+		}
+
+		/**
+		 * Close the channel of this handle and stop tracking it. The channel
+		 * is reopened if the handle is used again.
+		 */
+		public void close() throws IOException {
+			try {
+				synchronized (this) {
+					FileChannel ch = this.channel;
+					this.channel = null;
+					if (ch != null)
+						ch.close();
+				}
+			}
+			finally {
+				FileChannelManager.this.handles.remove(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap keeps, for every page of a HeapFile, the free space it had
+ * when last seen (in the units of its page format, see {@link TuplePage}), so
+ * that an insert can go straight to a page with room instead of locking and
+ * inspecting every page in turn.
+ * <p>
+ * The map is only a hint: it is updated whenever a page is read from disk or
+ * a tuple is inserted or deleted, but a page it points to must still be
+ * checked under its lock. A page that turns out to be full is simply marked
+ * as such and the next candidate is tried.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+	private int[] freeSpace;
+	private final BitSet hasRoom = new BitSet();
+	private int numPages;
+
+	/**
+	 * @param freeSpace the free space on each page of the file
+	 */
+	FreeSpaceMap(int[] freeSpace) {
+		this.freeSpace = freeSpace.clone();
+		this.numPages = freeSpace.length;
+		for (int i = 0; i < this.numPages; i++)
+			this.hasRoom.set(i, freeSpace[i] > 0);
+	}
+
+	/**
+	 * @return the first page numbered from or above that has at least the
+	 *         specified free space, or -1 if there is none
+	 */
+	synchronized int findPage(int from, int needed) {
+		for (int i = this.hasRoom.nextSetBit(from); i >= 0 && i < this.numPages; i = this.hasRoom.nextSetBit(i + 1))
+			if (this.freeSpace[i] >= needed)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Record the free space on a page, growing the map if the
+	 * page was appended to the file.
+	 */
+	synchronized void update(int pageNo, int freeSpace) {
+		if (pageNo >= this.freeSpace.length)
+			this.freeSpace = Arrays.copyOf(this.freeSpace,
+					Math.max(pageNo + 1, this.freeSpace.length * 2));
+		this.numPages = Math.max(this.numPages, pageNo + 1);
+
+		this.freeSpace[pageNo] = freeSpace;
+		this.hasRoom.set(pageNo, freeSpace > 0);
+	}
+
+	/**
+	 * @return the free space last recorded for a page
+	 */
+	synchronized int getFreeSpace(int pageNo) {
+		return pageNo < this.numPages ? this.freeSpace[pageNo] : 0;
+	}
+
+	/**
+	 * @return the number of pages covered by this map
+	 */
+	synchronized int numPages() {
+		return this.numPages;
+	}
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -20,6 +23,21 @@ public class HeapFile implements DbFile {
 	
 	private final File file;
 	private final TupleDesc tupleDesc;
+	private final FileChannelManager.Handle handle;
+	
+	/** Number of pages covered by one mapped segment in memory mapped mode. */
+	static final int MAP_SEGMENT_PAGES = 4096;
+	
+	private final boolean memoryMapped;
+	// segment i maps pages [i * MAP_SEGMENT_PAGES, (i + 1) * MAP_SEGMENT_PAGES),
+	// or as many of them as existed when it was last mapped
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	
+	// built from the page headers on the first insert
+	private volatile FreeSpaceMap freeSpace;
+	
+	// number of empty pages appended at once when the file is full
+	private volatile int extentSize = 1;
 	
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -29,8 +47,50 @@ public class HeapFile implements DbFile {
 	 *            file.
 	 */
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, false);
+	}
+	
+	/**
+	 * Constructs a heap file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 * @param memoryMapped
+	 *            if true, pages are read from a read-only memory mapping of
+	 *            the file and decoded in place, so scans are served by the OS
+	 *            page cache without copying each page into a fresh array.
+	 *            Writes still go through the file channel, which the mapping
+	 *            sees.
+	 */
+	public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
 		this.file = f;
 		this.tupleDesc = td;
+		this.handle = Database.getFileChannelManager().open(f);
+		this.memoryMapped = memoryMapped;
+	}
+	
+	/**
+	 * @return whether pages of this file are read through a memory mapping
+	 */
+	public boolean isMemoryMapped() {
+		return this.memoryMapped;
+	}
+	
+	/**
+	 * Set the number of pages the file grows by when no page has room for a
+	 * new tuple. The pages of an extent are written in a single call and are
+	 * filled one after another by later inserts, so bulk loads do not pay a
+	 * file extension for every page. Defaults to 1.
+	 */
+	public void setExtentSize(int pages) {
+		if (pages < 1)
+			throw new IllegalArgumentException("extent size must be positive");
+		this.extentSize = pages;
+	}
+	
+	public int getExtentSize() {
+		return this.extentSize;
 	}
 	
 	/**
@@ -71,31 +131,50 @@ public class HeapFile implements DbFile {
 		
 		int size = BufferPool.getPageSize();
 		
-		try (RandomAccessFile f = new RandomAccessFile(this.file, "r")) {
-			f.seek((long) size * pid.pageNumber());
+		try {
+			TuplePage page;
+			if (this.memoryMapped && pid.pageNumber() < this.numPages())
+				page = this.createPage((HeapPageId) pid, this.mappedPage(pid.pageNumber()));
+			else {
+				byte[] data = new byte[size];
+				this.handle.read(ByteBuffer.wrap(data), (long) size * pid.pageNumber());
+				page = this.createPage((HeapPageId) pid, ByteBuffer.wrap(data));
+			}
 			
-			byte[] data = new byte[size];
-			f.read(data, 0, size);
-			f.close();
+			// the map follows whatever the page holds now, which in STEAL /
+			// NO-FORCE mode may include uncommitted changes written on
+			// eviction; after an abort, the map is only corrected once the
+			// page is read again after the rollback
+			FreeSpaceMap fsm = this.freeSpace;
+			if (fsm != null && pid.pageNumber() < fsm.numPages())
+				fsm.update(pid.pageNumber(), page.getFreeSpace());
 			
-			return new HeapPage((HeapPageId) pid, data);
+			return page;
 		}
 		catch (IOException e) {
 			throw new DbException("readPage: IOException");
 		}
 	}
 	
+	// see DbFile.java for javadocs
+	public Page decodePage(PageId pid, byte[] data) {
+		try {
+			return this.createPage((HeapPageId) pid, ByteBuffer.wrap(data));
+		}
+		catch (IOException e) {
+			throw new DbException("decodePage: IOException");
+		}
+	}
+	
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
-		if (!(page instanceof HeapPage))
-			throw new IllegalArgumentException("page should be HeapPage");
+		if (!(page instanceof TuplePage))
+			throw new IllegalArgumentException("page should be TuplePage");
 		
 		int size = BufferPool.getPageSize();
 		
-		try (RandomAccessFile f = new RandomAccessFile(this.file, "rw")) {
-			f.seek((long) size * page.getId().pageNumber());
-			
-			f.write(page.getPageData()); // fuck
+		try {
+			this.handle.write(PageCodec.encode(page), (long) size * page.getId().pageNumber());
 		}
 		catch (IOException e) {
 			e.printStackTrace();
@@ -103,6 +182,65 @@ public class HeapFile implements DbFile {
 		}
 	}
 	
+	// see DbFile.java for javadocs
+	public synchronized void close() throws IOException {
+		// the mapping is unmapped once the pages read from it are dropped
+		this.segments = new MappedByteBuffer[0];
+		this.handle.close();
+	}
+	
+	/**
+	 * Create a page of this file from the bytes between the position and the
+	 * limit of a buffer. The page may keep the buffer, but must not modify
+	 * it. Subclasses override this and the other page format methods below
+	 * to store their tuples in a different page layout.
+	 *
+	 * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+	 */
+	protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+		return new HeapPage(pid, data);
+	}
+	
+	/**
+	 * @return the space the specified tuple takes on a page, in the units of
+	 *         {@link TuplePage#getFreeSpace()}: one slot for a HeapPage
+	 */
+	protected int spaceNeeded(Tuple t) {
+		return 1;
+	}
+	
+	/**
+	 * @return the free space on an empty, all zero page
+	 */
+	protected int emptyPageFreeSpace() {
+		return HeapPage.getNumTuples(this.tupleDesc);
+	}
+	
+	/**
+	 * @return the number of bytes at the start of a page that
+	 *         {@link #headerFreeSpace} needs to work out its free space
+	 */
+	protected int freeSpaceHeaderSize() {
+		return HeapPage.getHeaderSize(this.tupleDesc);
+	}
+	
+	/**
+	 * @return the free space on a page, given the first
+	 *         {@link #freeSpaceHeaderSize()} bytes of it
+	 */
+	protected int headerFreeSpace(byte[] header) {
+		return HeapPage.getNumTuples(this.tupleDesc) - HeapPage.countUsedSlots(header);
+	}
+	
+	/**
+	 * A deleted tuple must be able to go back to its slot, as on a
+	 * {@link HeapPage}, for the file to support record locking.
+	 */
+	@Override
+	public boolean supportsRecordLocking() {
+		return true;
+	}
+	
 	/**
 	 * Returns the number of pages in this HeapFile.
 	 */
@@ -113,58 +251,286 @@ public class HeapFile implements DbFile {
 	// see DbFile.java for javadocs
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		final boolean[] isNewPage = {false};
-		
-		HeapPage page = this.getPagesStream(tid, Permissions.READ_WRITE)
-				.filter(foo -> foo.getNumEmptySlots() > 0)
-				.findFirst()
-				.orElseGet(() -> {
-					try {
-						isNewPage[0] = true;
-						return new HeapPage(
-								new HeapPageId(this.getId(), this.numPages()),
-								HeapPage.createEmptyPageData());
-					} catch (IOException e) {
-						throw new DbException("IOException: " + e.getMessage());
+		BufferPool pool = Database.getBufferPool();
+		FreeSpaceMap fsm = this.freeSpaceMap();
+		int needed = this.spaceNeeded(t);
+		if (needed > this.emptyPageFreeSpace())
+			throw new DbException("tuple does not fit on a page");
+		if (pool.isRecordLocking(this))
+			return this.insertRecord(tid, t, fsm);
+		
+		while (true) {
+			int pageNo = this.choosePage(tid, fsm, needed);
+			if (pageNo == -1)
+				pageNo = this.appendPage(fsm);
+			
+			HeapPageId pid = new HeapPageId(this.getId(), pageNo);
+			boolean held = pool.holdsLock(tid, pid);
+			TuplePage page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+			
+			if (page.getFreeSpace() >= needed) {
+				page.insertTuple(t);
+				fsm.update(pageNo, page.getFreeSpace());
+				return new ArrayList<Page>() {{ this.add(page); }};
+			}
+			
+			// the map was stale; only this page was locked, so let it go
+			fsm.update(pageNo, page.getFreeSpace());
+			if (!held)
+				pool.releasePage(tid, pid);
+		}
+	}
+	
+	/**
+	 * Insert a tuple under a record lock: into the first page with room,
+	 * whoever else is changing other tuples of it, in a slot no running
+	 * transaction emptied or still locks.
+	 */
+	private ArrayList<Page> insertRecord(TransactionId tid, Tuple t, FreeSpaceMap fsm)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
+		
+		// pages whose free slots are all reserved or locked are skipped
+		for (int from = 0; ; ) {
+			int pageNo = fsm.findPage(from, 1);
+			if (pageNo == -1)
+				pageNo = this.appendPage(fsm);
+			
+			HeapPageId pid = new HeapPageId(this.getId(), pageNo);
+			boolean held = pool.holdsLock(tid, pid);
+			HeapPage page = (HeapPage) pool.getPageForRecords(tid, pid);
+			
+			boolean inserted = false;
+			synchronized (page) {
+				// reserved slots are not free until their transactions complete
+				BitSet reserved = pool.reservedSlots(tid, pid);
+				int free = page.getNumEmptySlots() - reserved.cardinality();
+				// the slot is locked before the page is changed; waiting for
+				// a lock with the latch held could deadlock, so a slot still
+				// locked by somebody else, e.g. whoever waited to delete the
+				// tuple it held, is skipped
+				for (int slot = 0, left = free; !inserted && left > 0; slot++) {
+					if (page.isSlotUsed(slot) || reserved.get(slot))
+						continue;
+					left--;
+					if (pool.tryLockRecord(tid, new RecordId(pid, slot), Permissions.READ_WRITE)) {
+						page.insertTuple(t, slot);
+						pool.recordInserted(tid, t);
+						page.markDirty(true, tid);
+						inserted = true;
+						free--;
 					}
-				});
+				}
+				// a slot that is only unavailable until other transactions
+				// complete stays free in the map, see updateFreeSpace
+				if (inserted)
+					fsm.update(pageNo, free);
+				else if (page.getNumEmptySlots() == 0)
+					fsm.update(pageNo, 0); // the map was stale
+			}
+			
+			if (inserted)
+				return new ArrayList<Page>() {{ this.add(page); }};
+			if (!held)
+				pool.releasePage(tid, pid);
+			from = pageNo + 1;
+		}
+	}
+	
+	/**
+	 * Record the free space a cached page has now in the free space map,
+	 * once a transaction that inserted or deleted tuples of it under record
+	 * locks completed.
+	 */
+	void updateFreeSpace(TuplePage page) {
+		FreeSpaceMap fsm = this.freeSpace;
+		if (fsm != null)
+			fsm.update(page.getId().pageNumber(), page.getFreeSpace());
+	}
+	
+	/**
+	 * @return the free space map of this file, building it from the headers
+	 *         of the pages on disk if this is the first time it is needed
+	 */
+	private FreeSpaceMap freeSpaceMap() throws IOException {
+		FreeSpaceMap fsm = this.freeSpace;
+		if (fsm != null)
+			return fsm;
+		
+		synchronized (this) {
+			if (this.freeSpace == null) {
+				int size = BufferPool.getPageSize();
+				int[] free = new int[this.numPages()];
+				
+				byte[] header = new byte[this.freeSpaceHeaderSize()];
+				for (int i = 0; i < free.length; i++) {
+					Arrays.fill(header, (byte) 0);
+					this.handle.read(ByteBuffer.wrap(header), (long) size * i);
+					free[i] = this.headerFreeSpace(header);
+				}
+				
+				this.freeSpace = new FreeSpaceMap(free);
+			}
+			return this.freeSpace;
+		}
+	}
+	
+	/**
+	 * Pick the page to insert into: the first page with room that this
+	 * transaction already holds or that nobody else has locked, so that
+	 * concurrent inserters spread over different pages instead of queueing
+	 * on the same one. Falls back to the first page with room.
+	 *
+	 * @return the page number, or -1 if no page has room
+	 */
+	private int choosePage(TransactionId tid, FreeSpaceMap fsm, int needed) {
+		BufferPool pool = Database.getBufferPool();
+		int first = fsm.findPage(0, needed);
 		
-		if (page == null)
-			throw new DbException("No empty page");
+		for (int i = first; i != -1; i = fsm.findPage(i + 1, needed)) {
+			HeapPageId pid = new HeapPageId(this.getId(), i);
+			if (pool.holdsLock(tid, pid) || !pool.isLocked(pid))
+				return i;
+		}
 		
-		page.insertTuple(t);
+		return first;
+	}
+	
+	/**
+	 * Append an extent of empty pages to the file and record them in the
+	 * free space map.
+	 *
+	 * @return the number of the first new page
+	 */
+	private synchronized int appendPage(FreeSpaceMap fsm) throws IOException {
+		int size = BufferPool.getPageSize();
+		int first = this.numPages();
+		int count = this.extentSize;
 		
-		if (isNewPage[0])
-			this.writePage(page);
+		// an empty page is all zeros, so the whole extent is one write
+		this.handle.write(ByteBuffer.allocate(size * count), (long) size * first);
+		if (this.memoryMapped)
+			for (int seg = first / MAP_SEGMENT_PAGES; seg <= (first + count - 1) / MAP_SEGMENT_PAGES; seg++)
+				this.mapSegment(seg);
 		
-		return new ArrayList<Page>() {{ this.add(page); }};
+		int free = this.emptyPageFreeSpace();
+		for (int i = first; i < first + count; i++)
+			fsm.update(i, free);
+		return first;
+	}
+	
+	/**
+	 * @return a view of the specified page in the memory mapping of this
+	 *         file, growing the mapping first if the page was appended after
+	 *         its segment was mapped
+	 */
+	private ByteBuffer mappedPage(int pageNo) throws IOException {
+		int size = BufferPool.getPageSize();
+		int seg = pageNo / MAP_SEGMENT_PAGES;
+		int offset = (pageNo % MAP_SEGMENT_PAGES) * size;
+		
+		MappedByteBuffer[] segs = this.segments;
+		MappedByteBuffer mapped = seg < segs.length ? segs[seg] : null;
+		if (mapped == null || mapped.capacity() < offset + size)
+			mapped = this.mapSegment(seg);
+		
+		ByteBuffer region = mapped.duplicate();
+		region.limit(offset + size).position(offset);
+		return region.slice();
+	}
+	
+	/**
+	 * (Re)maps the specified segment so that it covers every page of it that
+	 * currently exists in the file.
+	 */
+	private synchronized MappedByteBuffer mapSegment(int seg) throws IOException {
+		long segBytes = (long) MAP_SEGMENT_PAGES * BufferPool.getPageSize();
+		long start = seg * segBytes;
+		long length = Math.max(0, Math.min(segBytes, this.handle.size() - start));
+		
+		MappedByteBuffer[] segs = this.segments;
+		if (seg < segs.length && segs[seg] != null && segs[seg].capacity() >= length)
+			return segs[seg];
+		
+		MappedByteBuffer mapped = this.handle.channel().map(FileChannel.MapMode.READ_ONLY, start, length);
+		MappedByteBuffer[] grown = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+		grown[seg] = mapped;
+		this.segments = grown;
+		return mapped;
 	}
 	
 	// see DbFile.java for javadocs
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
 			TransactionAbortedException {
+		BufferPool pool = Database.getBufferPool();
 		HeapPageId pid = (HeapPageId) t.getRecordId().getPageId();
-		HeapPage page = (HeapPage) Database.getBufferPool().getPage(
-				tid, pid, Permissions.READ_WRITE);
+		if (pool.isRecordLocking(this)) {
+			pool.lockRecord(tid, t.getRecordId(), Permissions.READ_WRITE);
+			HeapPage page = (HeapPage) pool.getPageForRecords(tid, pid);
+			synchronized (page) {
+				page.deleteTuple(t);
+				pool.recordDeleted(tid, t);
+				page.markDirty(true, tid);
+			}
+			// the slot is kept for the tuple until the transaction completes,
+			// so the free space map is left as it is
+			return new ArrayList<Page>() {{ this.add(page); }};
+		}
+		
+		TuplePage page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
 		
 		page.deleteTuple(t);
+		
+		FreeSpaceMap fsm = this.freeSpace;
+		if (fsm != null)
+			fsm.update(pid.pageNumber(), page.getFreeSpace());
+		
 		return new ArrayList<Page>() {{ this.add(page); }};
 	}
 	
+	/**
+	 * Iterates over the tuples of a HeapFile page by page. The page being
+	 * walked is pinned, and unpinned when the iterator moves to the next page
+	 * or is closed.
+	 */
 	public class HeapFileIterator implements DbFileIterator {
 		private final TransactionId tid;
-		private Iterator<Stream<Tuple>> st;
+		private final BufferRing fixedRing;
+		private Iterator<TuplePage> st;
+		private TuplePage page; // pinned
 		private Iterator<Tuple> it;
 //		private int cur;
 		
+		/**
+		 * Creates an iterator that reads a table larger than the buffer pool
+		 * through a {@link BufferRing}.
+		 */
 		public HeapFileIterator(TransactionId tid) {
+			this(tid, null);
+		}
+		
+		/**
+		 * Creates an iterator that reads pages through the specified ring,
+		 * which is kept across rewinds, or chooses a ring when opened if it
+		 * is null.
+		 */
+		public HeapFileIterator(TransactionId tid, BufferRing ring) {
 			this.tid = tid;
+			this.fixedRing = ring;
 			this.close(); // Notice that the iterator is closed by default
 		}
 		
 		public void open() throws TransactionAbortedException, DbException {
-			this.st = HeapFile.this.getPagesStream(this.tid, Permissions.READ_ONLY)
-					.map(HeapPage::stream)
+			// one lock for the whole scan instead of one per page; with
+			// record locks, the scan locks its pages one by one instead, so
+			// that transactions changing tuples of other pages keep going
+			// until the page locks are escalated
+			if (!Database.getBufferPool().isRecordLocking(HeapFile.this))
+				Database.getBufferPool().lockTable(this.tid, HeapFile.this.getId(), Permissions.READ_ONLY);
+			int numPages = HeapFile.this.numPages();
+			BufferRing ring = this.fixedRing != null ? this.fixedRing : BufferRing.forScan(numPages);
+			ReadAhead readAhead = new ReadAhead(HeapFile.this.getId(), numPages, ring);
+			this.st = HeapFile.this.getPagesStream(this.tid, Permissions.READ_ONLY, readAhead, ring, true)
 					.iterator();
 			
 //			this.hasNext();
@@ -204,10 +570,17 @@ public class HeapFile implements DbFile {
 //
 //			return false;
 			
-			while (!this.it.hasNext() && this.st.hasNext())
-				this.it = this.st.next().iterator();
+			// unpin the page walked before fetching the next one, which may
+			// have to evict it from a small buffer pool
+			while (!this.it.hasNext()) {
+				this.unpin();
+				if (!this.st.hasNext())
+					return false;
+				this.page = this.st.next();
+				this.it = this.page.iterator();
+			}
 			
-			return this.it.hasNext();
+			return true;
 		}
 		
 		public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
@@ -225,9 +598,17 @@ public class HeapFile implements DbFile {
 		public void close() {
 //			this.cur = -1;
 //			this.it = null;
+			this.unpin();
 			this.st = Collections.emptyIterator();
 			this.it = Collections.emptyIterator();
 		}
+		
+		private void unpin() {
+			if (this.page != null) {
+				Database.getBufferPool().unpinPage(this.tid, this.page.getId());
+				this.page = null;
+			}
+		}
 	}
 	
 	// see DbFile.java for javadocs
@@ -235,13 +616,38 @@ public class HeapFile implements DbFile {
 		return new HeapFileIterator(tid);
 	}
 	
-	private Stream<HeapPage> getPagesStream(TransactionId tid, Permissions perm)
+	/**
+	 * Returns an iterator over all tuples of this file that reads its pages
+	 * through the specified ring, e.g. for a scan that should not disturb
+	 * the buffer pool whatever the size of the table.
+	 */
+	public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+		return new HeapFileIterator(tid, ring);
+	}
+	
+	private Stream<TuplePage> getPagesStream(TransactionId tid, Permissions perm)
 			throws TransactionAbortedException, DbException {
+		return this.getPagesStream(tid, perm, null, null, false);
+	}
+	
+	/**
+	 * @param readAhead if not null, told about every page before it is
+	 *                  fetched so that it can prefetch the following ones
+	 * @param ring if not null, the ring pages read from disk go into
+	 * @param pin true to pin every page fetched, for the caller to unpin
+	 */
+	private Stream<TuplePage> getPagesStream(TransactionId tid, Permissions perm, ReadAhead readAhead,
+			BufferRing ring, boolean pin) throws TransactionAbortedException, DbException {
+		BufferPool pool = Database.getBufferPool();
 		return IntStream.range(0, HeapFile.this.numPages())
-				.mapToObj(i -> (HeapPage) Database.getBufferPool().getPage(
-								tid,
-								new HeapPageId(HeapFile.this.getId(), i),
-								perm))
+				.peek(i -> {
+					if (readAhead != null)
+						readAhead.access(i);
+				})
+				.mapToObj(i -> new HeapPageId(HeapFile.this.getId(), i))
+				.map(pid -> (TuplePage) (pin
+						? pool.pinPage(tid, pid, perm, ring)
+						: pool.getPage(tid, pid, perm, ring)))
 //				.filter(foo -> { assert foo != null; return true; });
 				.filter(Objects::nonNull); // 好怪喔
 	}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -14,7 +15,7 @@ import java.util.stream.Stream;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 	private volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
 	
@@ -24,8 +25,13 @@ public class HeapPage implements Page {
 	final Tuple[] tuples;
 	final int numSlots;
 	
-	byte[] oldData;
-	private final Byte oldDataLock = (byte) 0;
+	// the page as it was read; never written to. Tuples are decoded from it
+	// on first access, until then their slot in tuples is null
+	private final ByteBuffer data;
+	private final int tupleSize;
+	private final int[] fieldOffsets;
+	
+	private final BeforeImage beforeImage = new BeforeImage();
 	
 	/**
 	 * Create a HeapPage from a set of bytes of data read from disk.
@@ -44,54 +50,83 @@ public class HeapPage implements Page {
 	 * @see BufferPool#getPageSize()
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+	
+	/**
+	 * Create a HeapPage from the bytes between the position and the limit of
+	 * a buffer, e.g. a region of a memory mapped HeapFile. Only the header is
+	 * read here; a tuple, or a single field, is decoded straight from the
+	 * buffer the first time it is accessed. The page keeps a reference to the
+	 * buffer and never writes to it, so the caller must not modify it either.
+	 * The position of the buffer is not changed.
+	 *
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 		this.numSlots = this.getNumTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.tupleSize = this.td.getSize();
+		this.data = data.slice();
+		
+		this.fieldOffsets = new int[this.td.numFields()];
+		for (int j = 1; j < this.fieldOffsets.length; j++)
+			this.fieldOffsets[j] = this.fieldOffsets[j - 1] + this.td.getFieldType(j - 1).getLen();
 		
 		// allocate and read the header slots of this page
 		this.header = new byte[this.getHeaderSize()];
-		for (int i = 0; i < this.header.length; i++)
-			this.header[i] = dis.readByte();
+		this.data.duplicate().get(this.header);
 		
 		this.tuples = new Tuple[this.numSlots];
-		try {
-			// allocate and read the actual records of this page
-			for (int i = 0; i < this.tuples.length; i++)
-				this.tuples[i] = this.readNextTuple(dis, i);
-		}
-		catch (NoSuchElementException e) {
-			e.printStackTrace();
-		}
-		dis.close();
-		
-		this.setBeforeImage();
 	}
 	
 	/** Retrieve the number of tuples on this page.
 	 @return the number of tuples on this page
 	 */
 	private int getNumTuples() {
+		return HeapPage.getNumTuples(this.td);
+	}
+	
+	/**
+	 * @return the number of tuple slots on a page of a HeapFile with the
+	 *         specified TupleDesc
+	 */
+	static int getNumTuples(TupleDesc td) {
 		return (BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1);
 	}
 	
+	/**
+	 * @return the number of header bytes on a page of a HeapFile with the
+	 *         specified TupleDesc
+	 */
+	static int getHeaderSize(TupleDesc td) {
+		return (HeapPage.getNumTuples(td) + 8 - 1) / 8;
+	}
+	
+	/**
+	 * @return the number of used slots recorded in a page header
+	 */
+	static int countUsedSlots(byte[] header) {
+		int used = 0;
+		for (byte b : header)
+			used += Integer.bitCount(b & 0xff);
+		return used;
+	}
+	
 	/**
 	 * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
 	 * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {
-		return (getNumTuples() + 8 - 1) / 8;
+		return HeapPage.getHeaderSize(this.td);
 	}
 	
 	/** Return a view of this page before it was modified
 	 -- used by recovery */
 	public HeapPage getBeforeImage() {
 		try {
-			byte[] oldDataRef = null;
-			synchronized(this.oldDataLock) {
-				oldDataRef = this.oldData;
-			}
-			return new HeapPage(this.pid, oldDataRef);
+			return new HeapPage(this.pid, this.beforeImage.get(this));
 		}
 		catch (IOException e) {
 			e.printStackTrace();
@@ -102,10 +137,18 @@ public class HeapPage implements Page {
 		return null;
 	}
 	
+	/**
+	 * The current content of this page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 *
+	 * @see #captureBeforeImage()
+	 */
 	public void setBeforeImage() {
-		synchronized(this.oldDataLock) {
-			this.oldData = this.getPageData().clone();
-		}
+		this.beforeImage.set();
+	}
+	
+	public void captureBeforeImage() {
+		this.beforeImage.capture(this);
 	}
 	
 	/**
@@ -116,30 +159,57 @@ public class HeapPage implements Page {
 	}
 	
 	/**
-	 * Suck up tuples from the source file.
+	 * @return the tuple in the specified slot, which must be in use, decoding
+	 *         it from the page data if it has not been accessed before
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i = 0; i < td.getSize(); i++) {
-				try {
-					dis.readByte();
-				}
-				catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
-			return null;
+	private Tuple getTuple(int slotId) {
+		Tuple t = this.tuples[slotId];
+		if (t == null) {
+			t = this.readTuple(slotId);
+			this.tuples[slotId] = t;
 		}
+		return t;
+	}
+	
+	/**
+	 * Returns one field of the tuple in the specified slot. If the tuple has
+	 * not been accessed before, only that field is decoded from the page
+	 * data.
+	 *
+	 * @throws NoSuchElementException if the slot is empty
+	 */
+	public Field getField(int slotId, int fieldIndex) throws NoSuchElementException {
+		if (!this.isSlotUsed(slotId))
+			throw new NoSuchElementException("slot " + slotId + " is empty");
+		
+		Tuple t = this.tuples[slotId];
+		if (t != null)
+			return t.getField(fieldIndex);
 		
+		ByteBuffer buf = this.data.duplicate();
+		buf.position(this.slotOffset(slotId) + this.fieldOffsets[fieldIndex]);
+		try {
+			return this.td.getFieldType(fieldIndex).parse(buf);
+		}
+		catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+	
+	/**
+	 * Suck up the tuple in the specified slot from the page data.
+	 */
+	private Tuple readTuple(int slotId) throws NoSuchElementException {
 		// read fields in the tuple
 		Tuple t = new Tuple(td);
 		RecordId rid = new RecordId(pid, slotId);
 		t.setRecordId(rid);
+		ByteBuffer buf = this.data.duplicate();
+		buf.position(this.slotOffset(slotId));
 		try {
 			for (int j = 0; j < td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
+				Field f = td.getFieldType(j).parse(buf);
 				t.setField(j, f);
 			}
 		}
@@ -151,6 +221,13 @@ public class HeapPage implements Page {
 		return t;
 	}
 	
+	/**
+	 * @return the offset of the specified slot in the page data
+	 */
+	private int slotOffset(int slotId) {
+		return this.header.length + slotId * this.tupleSize;
+	}
+	
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -163,69 +240,43 @@ public class HeapPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		return PageCodec.toByteArray(this, BufferPool.getPageSize());
+	}
+	
+	// see Page.java for javadocs
+	public void writePageData(ByteBuffer buf) {
+		int start = buf.position();
 		
 		// create the header of the page
-		for (int i = 0; i < header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			}
-			catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		buf.put(this.header);
 		
 		// create the tuples
-		for (int i = 0; i < tuples.length; i++) {
+		ByteBuffer raw = this.data.duplicate();
+		for (int i = 0; i < this.numSlots; i++) {
 			
 			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j = 0; j < td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					}
-					catch (IOException e) {
-						e.printStackTrace();
-					}
-					
-				}
+			if (!this.isSlotUsed(i)) {
+				PageCodec.putZeros(buf, this.tupleSize);
 				continue;
 			}
 			
-			// non-empty slot
-			for (int j = 0; j < td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
+			// non-empty slot that was never accessed: copy it as it was read
+			Tuple t = this.tuples[i];
+			if (t == null) {
+				int offset = this.slotOffset(i);
+				raw.limit(offset + this.tupleSize);
+				raw.position(offset);
+				buf.put(raw);
+				continue;
 			}
+			
+			// non-empty slot
+			for (int j = 0; j < this.td.numFields(); j++)
+				t.getField(j).serialize(buf);
 		}
 		
 		// padding
-		int zerolen = BufferPool.getPageSize()
-				- (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		}
-		catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		try {
-			dos.flush();
-		}
-		catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		return baos.toByteArray();
+		PageCodec.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
 	}
 	
 	/**
@@ -272,18 +323,34 @@ public class HeapPage implements Page {
 		if (!this.td.equals(t.getTupleDesc()))
 			throw new DbException("TupleDesc mismatch");
 		
-		IntStream.range(0, this.getNumTuples())
-				.filter(i -> !this.isSlotUsed(i))
-				.limit(1)
-				.forEach(i -> {
-					this.tuples[i] = t;
-					t.setRecordId(new RecordId(this.pid, i));
-					this.markSlotUsed(i, true);
-				});
+		// skip full header bytes instead of testing every slot
+		int i = 0;
+		while (this.header[i >> 3] == (byte) 0xff)
+			i += 8;
+		while (this.isSlotUsed(i))
+			i++;
+		
+		this.insertTuple(t, i);
 		
 		assert this.pid.equals(t.getRecordId().getPageId());
 	}
 	
+	/**
+	 * Adds the specified tuple to the page in the specified slot, e.g. the
+	 * slot it was deleted from, and sets its RecordId.
+	 * @throws DbException if the slot is not empty, or tupledesc is mismatch.
+	 */
+	void insertTuple(Tuple t, int slot) throws DbException {
+		if (slot < 0 || slot >= this.numSlots || this.isSlotUsed(slot))
+			throw new DbException("slot not empty");
+		if (!this.td.equals(t.getTupleDesc()))
+			throw new DbException("TupleDesc mismatch");
+		
+		this.tuples[slot] = t;
+		t.setRecordId(new RecordId(this.pid, slot));
+		this.markSlotUsed(slot, true);
+	}
+	
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -304,9 +371,16 @@ public class HeapPage implements Page {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		return (int) IntStream.range(0, this.getNumTuples())
-				.filter(i -> !this.isSlotUsed(i))
-				.count();
+		// bits past the last slot are never set
+		return this.numSlots - HeapPage.countUsedSlots(this.header);
+	}
+	
+	/**
+	 * Returns the number of empty slots on this page, which is the free space
+	 * of a page with fixed-length slots.
+	 */
+	public int getFreeSpace() {
+		return this.getNumEmptySlots();
 	}
 	
 	/**
@@ -332,9 +406,9 @@ public class HeapPage implements Page {
 	 */
 	public Stream<Tuple> stream() {
 //		return Arrays.stream(this.tuples).filter(Objects::nonNull);
-		return IntStream.range(0, this.getNumTuples())
+		return IntStream.range(0, this.numSlots)
 				.filter(this::isSlotUsed)
-				.mapToObj(i -> this.tuples[i]);
+				.mapToObj(this::getTuple);
 	}
 	
 	/**
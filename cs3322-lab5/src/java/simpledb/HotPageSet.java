@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HotPageSet stores the ids of the pages resident in the {@link BufferPool},
+ * with the number of requests for each, so that the pages can be loaded
+ * again after a restart. See {@link BufferPool#saveHotPages(File)} and
+ * {@link BufferPool#warmUp(File)}.
+ * <p>
+ * The file holds the number of pages, then for each page the class name of
+ * its id, the serialized id (see {@link PageId#serialize()}) and the number
+ * of requests. Page ids are rebuilt with their constructor taking the
+ * serialized ints, as the log does.
+ */
+class HotPageSet {
+	/** The number of pages loaded between two checks that the buffer pool is not full. */
+	static final int BATCH_PAGES = 64;
+
+	/**
+	 * Write the specified pages and their number of requests to a file,
+	 * replacing it only once it is completely written.
+	 */
+	static void save(Map<PageId, Integer> pages, File f) throws IOException {
+		File tmp = new File(f.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(pages.size());
+			for (Map.Entry<PageId, Integer> entry : pages.entrySet()) {
+				int[] id = entry.getKey().serialize();
+				out.writeUTF(entry.getKey().getClass().getName());
+				out.writeInt(id.length);
+				for (int i : id)
+					out.writeInt(i);
+				out.writeInt(entry.getValue());
+			}
+		}
+		if (!tmp.renameTo(f)) {
+			f.delete();
+			if (!tmp.renameTo(f))
+				throw new IOException("cannot replace " + f);
+		}
+	}
+
+	/**
+	 * Read the pages written by {@link #save}.
+	 *
+	 * @return the pages and their number of requests, or no page if the file
+	 *         does not exist
+	 */
+	static Map<PageId, Integer> load(File f) throws IOException {
+		LinkedHashMap<PageId, Integer> pages = new LinkedHashMap<>();
+		if (!f.exists())
+			return pages;
+
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(f)))) {
+			int count = in.readInt();
+			for (int n = 0; n < count; n++) {
+				String idClassName = in.readUTF();
+				Object[] args = new Object[in.readInt()];
+				for (int i = 0; i < args.length; i++)
+					args[i] = in.readInt();
+				pages.put(pageId(idClassName, args), in.readInt());
+			}
+		}
+		return pages;
+	}
+
+	private static PageId pageId(String idClassName, Object[] args) throws IOException {
+		try {
+			for (Constructor<?> c : Class.forName(idClassName).getDeclaredConstructors()) {
+				Class<?>[] params = c.getParameterTypes();
+				boolean ints = params.length == args.length;
+				for (Class<?> param : params)
+					ints &= param == int.class;
+				if (ints)
+					return (PageId) c.newInstance(args);
+			}
+			throw new IOException("no constructor of " + idClassName + " takes " + args.length + " ints");
+		}
+		catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+				| InvocationTargetException e) {
+			throw new IOException("cannot rebuild a " + idClassName, e);
+		}
+	}
+}
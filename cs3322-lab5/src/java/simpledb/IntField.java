@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -45,6 +46,10 @@ public class IntField implements Field {
 		dos.writeInt(value);
 	}
 	
+	public void serialize(ByteBuffer buf) {
+		buf.putInt(value);
+	}
+	
 	/**
 	 * Compare the specified field to the value of this Field.
 	 * Return semantics are as specified by Field.compare
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations, in nanoseconds, in power of two
+ * buckets: bucket i counts the durations in [2^i, 2^(i+1)), and bucket 0 the
+ * durations under 2 nanoseconds too. Recording a duration only increments
+ * striped counters, so that threads recording at the same time do not
+ * contend on a single cache line; percentiles are therefore approximate,
+ * within a factor of two.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++)
+			this.buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * Count a duration.
+	 *
+	 * @param nanos the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(nanos, 0);
+		this.buckets[nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos)].increment();
+		this.total.add(nanos);
+		this.max.accumulate(nanos);
+	}
+
+	/**
+	 * Forget the durations counted so far.
+	 */
+	public void reset() {
+		for (LongAdder bucket : this.buckets)
+			bucket.reset();
+		this.total.reset();
+		this.max.reset();
+	}
+
+	/**
+	 * @return the durations counted so far; durations counted meanwhile may
+	 *         be partly included
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = this.buckets[i].sum();
+		return new Snapshot(counts, this.total.sum(), this.max.get());
+	}
+
+	/**
+	 * The durations counted by a histogram at some point.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max;
+
+		Snapshot(long[] counts, long total, long max) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts)
+				count += c;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of durations
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return the sum of the durations, in nanoseconds
+		 */
+		public long getTotalNanos() {
+			return this.total;
+		}
+
+		/**
+		 * @return the mean duration, in nanoseconds, or 0 if there is none
+		 */
+		public long getMeanNanos() {
+			return this.count == 0 ? 0 : this.total / this.count;
+		}
+
+		/**
+		 * @return the longest duration, in nanoseconds
+		 */
+		public long getMaxNanos() {
+			return this.max;
+		}
+
+		public long getP50Nanos() {
+			return this.percentile(0.5);
+		}
+
+		public long getP99Nanos() {
+			return this.percentile(0.99);
+		}
+
+		/**
+		 * @param p a fraction, between 0 and 1
+		 * @return an upper bound of the specified percentile of the
+		 *         durations, in nanoseconds: the end of the bucket it falls in,
+		 *         but no more than the longest duration
+		 */
+		public long percentile(double p) {
+			if (this.count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(p * this.count));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank)
+					return Math.min(this.max, i >= 62 ? Long.MAX_VALUE : (2L << i) - 1);
+			}
+			return this.max;
+		}
+	}
+}
@@ -0,0 +1,964 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockManager grants table, page and record locks to transactions, for the
+ * {@link BufferPool}.
+ * <p>
+ * Locks are hierarchical: before locking a page, a transaction locks its
+ * table in an intention mode, {@link Mode#INTENTION_SHARED} to read the
+ * page, {@link Mode#INTENTION_EXCLUSIVE} to write it. A transaction reading
+ * or writing a whole table, e.g. a scan, locks the table in
+ * {@link Mode#SHARED} or {@link Mode#EXCLUSIVE} mode instead, which covers
+ * all its pages, so that no page lock is needed. Records are locked the same
+ * way one level down, under an intention lock on their page, so that
+ * transactions changing different records of a page can hold it together;
+ * see {@link #acquireRecord}. A transaction whose page
+ * locks on a table pass the escalation threshold, see
+ * {@link #setEscalationThreshold(int)}, trades them for a lock on the table.
+ * <p>
+ * The lock table is striped: a table, page or record hashes to one of
+ * {@link #STRIPES} stripes, whose monitor guards the locks that hash to it,
+ * so that requests for locks of different stripes do not contend. A lock
+ * only exists while it is held or requested, and is dropped from its stripe
+ * as soon as it is free.
+ * <p>
+ * Each lock queues the requests it cannot grant yet in FIFO order: a request
+ * is granted if it is compatible with the holders and no request is waiting
+ * before it, so that a stream of readers cannot starve a writer. A
+ * transaction upgrading its lock to a stronger mode goes before the requests
+ * already waiting, since they wait for it anyway.
+ * <p>
+ * The locks each transaction holds are also kept by transaction, so that
+ * they are released in time proportional to their number.
+ * <p>
+ * Deadlocks are handled by one of three {@link Strategy strategies}. By
+ * default, requests never look for deadlocks themselves: as long as some
+ * transaction waits, a detector thread builds the wait-for graph every
+ * {@link #DETECT_MILLIS} ms, and breaks each of its cycles by aborting one
+ * of the transactions in it, chosen by the {@link VictimPolicy}. The
+ * request of the victim is withdrawn, and the victim throws
+ * {@link TransactionAbortedException} from {@link #acquire} once it wakes
+ * up. The detector stops once nobody waited for a while.
+ * <p>
+ * Wait-die and wound-wait instead prevent deadlocks without any graph,
+ * from the order of the transaction ids: a transaction only ever waits for
+ * younger ones (wait-die), or only for older ones (wound-wait). The
+ * strategy is read from the <code>simpledb.DeadlockStrategy</code> system
+ * property at startup, e.g. <code>-Dsimpledb.DeadlockStrategy=WOUND_WAIT</code>.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+	/** The number of stripes of the lock table. */
+	public static final int STRIPES = 64;
+	/** How often, in milliseconds, the detector looks for deadlocks while transactions wait. */
+	public static final long DETECT_MILLIS = 10;
+	/** How long, in milliseconds, the detector waits for a transaction to wait before stopping. */
+	public static final long IDLE_MILLIS = 1000;
+	/** The number of page locks on a table a transaction holds before it locks the table instead. */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+	/**
+	 * The mode of a lock. Records are only locked in shared or exclusive
+	 * mode; tables and pages in any mode.
+	 */
+	public enum Mode {
+		/** Some pages of the table, or records of the page, are read. */
+		INTENTION_SHARED,
+		/** Some pages of the table, or records of the page, are written. */
+		INTENTION_EXCLUSIVE,
+		/** The table, page or record is read. */
+		SHARED,
+		/** The table or page is read, and some of its pages or records written. */
+		SHARED_INTENTION_EXCLUSIVE,
+		/** The table, page or record is written. */
+		EXCLUSIVE;
+
+		// COMPATIBLE[a][b]: whether a and b can be held together, by ordinal
+		private static final boolean[][] COMPATIBLE = {
+				{ true, true, true, true, false },
+				{ true, true, false, false, false },
+				{ true, false, true, false, false },
+				{ true, false, false, false, false },
+				{ false, false, false, false, false },
+		};
+
+		/**
+		 * @return whether two transactions can hold a lock in this mode and
+		 *         in the specified mode at the same time
+		 */
+		public boolean compatible(Mode other) {
+			return COMPATIBLE[this.ordinal()][other.ordinal()];
+		}
+
+		/**
+		 * @return whether holding a lock in this mode allows what the
+		 *         specified mode allows
+		 */
+		public boolean covers(Mode other) {
+			switch (this) {
+			case EXCLUSIVE:
+				return true;
+			case SHARED_INTENTION_EXCLUSIVE:
+				return other != EXCLUSIVE;
+			case SHARED:
+			case INTENTION_EXCLUSIVE:
+				return other == this || other == INTENTION_SHARED;
+			default:
+				return other == INTENTION_SHARED;
+			}
+		}
+
+		/**
+		 * @return the weakest mode that covers both this mode and the
+		 *         specified one, which a lock held in one of them is upgraded
+		 *         to when the other one is requested
+		 */
+		public Mode join(Mode other) {
+			if (this.covers(other))
+				return this;
+			if (other.covers(this))
+				return other;
+			return SHARED_INTENTION_EXCLUSIVE; // SHARED and INTENTION_EXCLUSIVE
+		}
+
+		/**
+		 * @return the mode a lock in this mode holds the pages of a table,
+		 *         or the records of a page, in without locking them: null
+		 *         for the intention modes
+		 */
+		public Mode implied() {
+			switch (this) {
+			case EXCLUSIVE:
+				return EXCLUSIVE;
+			case SHARED:
+			case SHARED_INTENTION_EXCLUSIVE:
+				return SHARED;
+			default:
+				return null;
+			}
+		}
+
+		/**
+		 * @return the intention mode to lock the table or page of a page or
+		 *         record in before locking it in this mode
+		 */
+		Mode intention() {
+			return this.covers(INTENTION_EXCLUSIVE) ? INTENTION_EXCLUSIVE : INTENTION_SHARED;
+		}
+
+		/**
+		 * @return the weakest mode that covers both modes, either of which
+		 *         may be null
+		 */
+		static Mode join(Mode a, Mode b) {
+			return a == null ? b : b == null ? a : a.join(b);
+		}
+	}
+
+	/** How deadlocks are handled. */
+	public enum Strategy {
+		/** Wait, and let the detector abort a transaction of each deadlock. */
+		DETECT,
+		/**
+		 * A transaction that would wait for an older one aborts instead
+		 * (dies); an older one waits.
+		 */
+		WAIT_DIE,
+		/**
+		 * A transaction that would wait for a younger one aborts it instead
+		 * (wounds it), then waits for it to release its locks; a younger one
+		 * waits. A wounded transaction aborts as soon as it waits, or
+		 * requests a lock again.
+		 */
+		WOUND_WAIT;
+
+		/**
+		 * @return the strategy named by the simpledb.DeadlockStrategy system
+		 *         property, {@link #DETECT} if it is not set
+		 */
+		static Strategy fromProperty() {
+			String strategy = System.getProperty("simpledb.DeadlockStrategy");
+			return strategy == null || strategy.isEmpty() ? DETECT
+					: valueOf(strategy.toUpperCase().replace('-', '_'));
+		}
+	}
+
+	/** How the detector chooses the transaction to abort in a deadlock. */
+	public enum VictimPolicy {
+		/** The transaction that started last. */
+		YOUNGEST {
+			long cost(LockManager locks, TransactionId tid) {
+				return 0;
+			}
+		},
+		/** The transaction holding the fewest locks. */
+		FEWEST_LOCKS {
+			long cost(LockManager locks, TransactionId tid) {
+				Map<Object, Mode> held = locks.held.get(tid);
+				return held != null ? held.size() : 0;
+			}
+		},
+		/** The transaction that wrote the fewest bytes to the log. */
+		LEAST_LOG {
+			long cost(LockManager locks, TransactionId tid) {
+				return Database.getLogFile().getBytesLogged(tid);
+			}
+		};
+
+		/**
+		 * @return what aborting the specified transaction would waste; the
+		 *         transaction of the lowest cost is aborted, the youngest one
+		 *         if several have the lowest cost
+		 */
+		abstract long cost(LockManager locks, TransactionId tid);
+
+		TransactionId choose(LockManager locks, List<TransactionId> cycle) {
+			return Collections.min(cycle, Comparator
+					.comparingLong((TransactionId tid) -> this.cost(locks, tid))
+					.thenComparing(Comparator.comparingLong(TransactionId::getId).reversed()));
+		}
+	}
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	// the locks each transaction holds, by table, page or record, changed with the
+	// stripe of the lock held
+	private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, Mode>> held =
+			new ConcurrentHashMap<>();
+	// the number of page locks each transaction holds on each table
+	private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, Integer>> pageCounts =
+			new ConcurrentHashMap<>();
+	// the request each waiting transaction waits for, changed with its stripe held
+	private final ConcurrentHashMap<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+	// transactions wounded by an older one, until they release their locks
+	private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+	private volatile Strategy strategy = Strategy.fromProperty();
+	private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+	private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+	private Thread detector = null; // guarded by this
+	private final LongAdder aborted = new LongAdder();
+
+	public LockManager() {
+		for (int i = 0; i < STRIPES; i++)
+			this.stripes[i] = new Stripe();
+	}
+
+	/**
+	 * Lock a page on behalf of a transaction, waiting until the lock can be
+	 * granted: its table in the matching intention mode first, unless the
+	 * transaction holds a lock on the table that covers the page already,
+	 * then the page itself. A transaction holding a shared lock that requests
+	 * an exclusive one upgrades it; a transaction that already holds a lock
+	 * that covers the requested mode returns at once. Once the transaction
+	 * holds more page locks on the table than the escalation threshold, it
+	 * locks the table instead, and releases the page and record locks the
+	 * table lock covers.
+	 *
+	 * @param mode {@link Mode#SHARED} or {@link Mode#EXCLUSIVE}, or an
+	 *        intention mode to lock records of the page
+	 * @throws TransactionAbortedException if the transaction was chosen as
+	 *         the victim of a deadlock while it waited, would have waited for
+	 *         an older transaction (wait-die), was wounded by an older
+	 *         transaction (wound-wait), or was interrupted; the locks the
+	 *         transaction held are kept
+	 */
+	public void acquire(TransactionId tid, PageId pid, Mode mode) throws TransactionAbortedException {
+		Object table = new Table(pid.getTableId());
+		Map<Object, Mode> locks = this.held.get(tid);
+		Mode tableMode = locks != null ? locks.get(table) : null;
+		if (tableMode != null && tableMode.implied() != null && tableMode.implied().covers(mode))
+			return;
+
+		this.lock(tid, table, mode.intention());
+		this.lock(tid, pid, mode);
+
+		Map<Integer, Integer> counts = this.pageCounts.get(tid);
+		if (counts != null && counts.getOrDefault(pid.getTableId(), 0) > this.escalationThreshold)
+			this.escalate(tid, pid.getTableId());
+	}
+
+	/**
+	 * Lock a record on behalf of a transaction, as
+	 * {@link #acquire(TransactionId, PageId, Mode)} one level down: its page
+	 * in the matching intention mode first, which locks the table, unless the
+	 * lock of the transaction on the page or table covers the record
+	 * already, then the record itself.
+	 *
+	 * @param mode {@link Mode#SHARED} or {@link Mode#EXCLUSIVE}
+	 */
+	public void acquireRecord(TransactionId tid, RecordId rid, Mode mode) throws TransactionAbortedException {
+		if (this.covered(tid, rid.getPageId(), mode))
+			return;
+		this.acquire(tid, rid.getPageId(), mode.intention());
+		// unless the page locks were escalated meanwhile
+		if (!this.covered(tid, rid.getPageId(), mode))
+			this.lock(tid, rid, mode);
+	}
+
+	/**
+	 * Lock a record on behalf of a transaction, as
+	 * {@link #acquireRecord(TransactionId, RecordId, Mode)}, but only if the
+	 * lock can be granted without waiting. The transaction must hold the
+	 * page of the record in the matching intention mode already.
+	 *
+	 * @return whether the lock was granted
+	 */
+	public boolean tryAcquireRecord(TransactionId tid, RecordId rid, Mode mode) {
+		return this.covered(tid, rid.getPageId(), mode) || this.tryLock(tid, rid, mode);
+	}
+
+	/**
+	 * @return whether the locks of a transaction on a page or its table
+	 *         cover the records of the page in the specified mode
+	 */
+	private boolean covered(TransactionId tid, PageId pid, Mode mode) {
+		Mode page = this.getMode(tid, pid);
+		return page != null && page.implied() != null && page.implied().covers(mode);
+	}
+
+	/**
+	 * Lock a table on behalf of a transaction, as
+	 * {@link #acquire(TransactionId, PageId, Mode)}: {@link Mode#SHARED} to
+	 * read all its pages, {@link Mode#EXCLUSIVE} to write them, without
+	 * locking them one by one.
+	 */
+	public void acquireTable(TransactionId tid, int tableId, Mode mode) throws TransactionAbortedException {
+		this.lock(tid, new Table(tableId), mode);
+	}
+
+	/**
+	 * Trade the page and record locks of a transaction on a table for a lock
+	 * on the table: exclusive if it writes some of the pages or records,
+	 * shared otherwise.
+	 */
+	private void escalate(TransactionId tid, int tableId) throws TransactionAbortedException {
+		Map<Object, Mode> locks = this.held.get(tid);
+		boolean writes = false;
+		for (Map.Entry<Object, Mode> entry : locks.entrySet()) {
+			if (Objects.equals(LockManager.tableOf(entry.getKey()), tableId))
+				writes |= entry.getValue().covers(Mode.INTENTION_EXCLUSIVE);
+		}
+
+		Table table = new Table(tableId);
+		this.lock(tid, table, writes ? Mode.EXCLUSIVE : Mode.SHARED);
+		Mode implied = locks.get(table).implied();
+		for (Map.Entry<Object, Mode> entry : new ArrayList<>(locks.entrySet())) {
+			if (Objects.equals(LockManager.tableOf(entry.getKey()), tableId) && implied.covers(entry.getValue()))
+				this.release(tid, entry.getKey());
+		}
+	}
+
+	/**
+	 * @return the id of the table of a page or record, or null for a table
+	 */
+	private static Integer tableOf(Object resource) {
+		if (resource instanceof PageId)
+			return ((PageId) resource).getTableId();
+		if (resource instanceof RecordId)
+			return ((RecordId) resource).getPageId().getTableId();
+		return null;
+	}
+
+	/**
+	 * Lock a table, page or record on behalf of a transaction, waiting until the
+	 * lock can be granted.
+	 */
+	private void lock(TransactionId tid, Object resource, Mode mode) throws TransactionAbortedException {
+		Strategy strategy = this.strategy;
+		if (strategy == Strategy.WOUND_WAIT && this.wounded.contains(tid))
+			throw new TransactionAbortedException();
+
+		// only this transaction asks for its own locks, so they cannot be
+		// weakened meanwhile
+		Map<Object, Mode> locks = this.held.get(tid);
+		Mode mine = locks != null ? locks.get(resource) : null;
+		if (mine != null && mine.covers(mode))
+			return;
+
+		Stripe stripe = this.stripeOf(resource);
+		Request request;
+		List<TransactionId> wounds = Collections.emptyList();
+		synchronized (stripe) {
+			Lock lock = stripe.locks.computeIfAbsent(resource, foo -> new Lock());
+			Mode holding = lock.holders.get(tid);
+			if (holding != null && holding.covers(mode))
+				return;
+
+			if (holding != null)
+				lock.queue.addFirst(request = new Request(tid, resource, holding.join(mode))); // upgrade
+			else
+				lock.queue.addLast(request = new Request(tid, resource, mode));
+			this.grant(resource, lock);
+			if (request.granted)
+				return;
+			this.waiting.put(tid, request);
+
+			if (strategy == Strategy.WAIT_DIE)
+				this.die(lock);
+			else if (strategy == Strategy.WOUND_WAIT) {
+				// wounded since it last checked: the wounding transaction may
+				// not have seen this request
+				if (this.wounded.contains(tid))
+					this.abort(request);
+				else
+					wounds = this.wounds(lock);
+			}
+		}
+
+		if (strategy == Strategy.DETECT)
+			this.startDetector();
+		for (TransactionId victim : wounds)
+			this.wound(victim);
+
+		synchronized (stripe) {
+			try {
+				while (!request.granted && !request.aborted)
+					stripe.wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (!request.granted)
+					this.withdraw(request);
+			}
+			if (request.granted)
+				return;
+		}
+		throw new TransactionAbortedException();
+	}
+
+	/**
+	 * Lock a table, page or record on behalf of a transaction if the lock can
+	 * be granted at once; a request that would have to wait is withdrawn.
+	 *
+	 * @return whether the lock was granted
+	 */
+	private boolean tryLock(TransactionId tid, Object resource, Mode mode) {
+		Stripe stripe = this.stripeOf(resource);
+		synchronized (stripe) {
+			Lock lock = stripe.locks.computeIfAbsent(resource, foo -> new Lock());
+			Mode holding = lock.holders.get(tid);
+			if (holding != null && holding.covers(mode))
+				return true;
+
+			Request request;
+			if (holding != null)
+				lock.queue.addFirst(request = new Request(tid, resource, holding.join(mode))); // upgrade
+			else
+				lock.queue.addLast(request = new Request(tid, resource, mode));
+			this.grant(resource, lock);
+			if (!request.granted)
+				this.withdraw(request);
+			return request.granted;
+		}
+	}
+
+	/**
+	 * Release the lock of a transaction on a page, if it holds one. The lock
+	 * on its table is kept.
+	 */
+	public void release(TransactionId tid, PageId pid) {
+		this.release(tid, (Object) pid);
+	}
+
+	private void release(TransactionId tid, Object resource) {
+		Stripe stripe = this.stripeOf(resource);
+		synchronized (stripe) {
+			Lock lock = stripe.locks.get(resource);
+			if (lock == null || lock.holders.remove(tid) == null)
+				return;
+			Map<Object, Mode> locks = this.held.get(tid);
+			if (locks != null)
+				locks.remove(resource);
+			if (resource instanceof PageId) {
+				Map<Integer, Integer> counts = this.pageCounts.get(tid);
+				if (counts != null)
+					counts.computeIfPresent(((PageId) resource).getTableId(), (foo, n) -> n > 1 ? n - 1 : null);
+			}
+			this.grant(resource, lock);
+			this.reclaim(stripe, resource, lock);
+		}
+	}
+
+	/**
+	 * Release all the locks of a transaction.
+	 */
+	public void releaseAll(TransactionId tid) {
+		this.wounded.remove(tid);
+		this.pageCounts.remove(tid);
+		Map<Object, Mode> locks = this.held.remove(tid);
+		if (locks == null)
+			return;
+		for (Object resource : locks.keySet()) {
+			Stripe stripe = this.stripeOf(resource);
+			synchronized (stripe) {
+				Lock lock = stripe.locks.get(resource);
+				if (lock == null || lock.holders.remove(tid) == null)
+					continue;
+				this.grant(resource, lock);
+				this.reclaim(stripe, resource, lock);
+			}
+		}
+	}
+
+	/**
+	 * @return the mode the specified transaction can access the specified
+	 *         page in, through its lock on the page or on its table:
+	 *         {@link Mode#SHARED}, {@link Mode#EXCLUSIVE}, an intention mode
+	 *         if it only locks records of the page, or null if it cannot
+	 *         access it
+	 */
+	public Mode getMode(TransactionId tid, PageId pid) {
+		Map<Object, Mode> locks = this.held.get(tid);
+		if (locks == null)
+			return null;
+		Mode table = locks.get(new Table(pid.getTableId()));
+		return Mode.join(locks.get(pid), table != null ? table.implied() : null);
+	}
+
+	/**
+	 * @return the mode the specified transaction can access the specified
+	 *         record in, through its lock on the record, on its page or on
+	 *         its table: {@link Mode#SHARED}, {@link Mode#EXCLUSIVE}, or null
+	 *         if it cannot access it
+	 */
+	public Mode getMode(TransactionId tid, RecordId rid) {
+		Map<Object, Mode> locks = this.held.get(tid);
+		if (locks == null)
+			return null;
+		Mode page = this.getMode(tid, rid.getPageId());
+		return Mode.join(locks.get(rid), page != null ? page.implied() : null);
+	}
+
+	/**
+	 * @return the mode the specified transaction holds a lock on the
+	 *         specified table in, or null if it holds none
+	 */
+	public Mode getTableMode(TransactionId tid, int tableId) {
+		Map<Object, Mode> locks = this.held.get(tid);
+		return locks != null ? locks.get(new Table(tableId)) : null;
+	}
+
+	/**
+	 * @return whether the specified transaction can access the specified
+	 *         page, through its lock on the page or on its table
+	 */
+	public boolean holdsLock(TransactionId tid, PageId pid) {
+		return this.getMode(tid, pid) != null;
+	}
+
+	/**
+	 * @return whether some transaction holds a lock on the specified page,
+	 *         or on its table in a mode that covers it; this is only a
+	 *         snapshot
+	 */
+	public boolean isLocked(PageId pid) {
+		Stripe stripe = this.stripeOf(pid);
+		synchronized (stripe) {
+			Lock lock = stripe.locks.get(pid);
+			if (lock != null && !lock.holders.isEmpty())
+				return true;
+		}
+
+		Table table = new Table(pid.getTableId());
+		stripe = this.stripeOf(table);
+		synchronized (stripe) {
+			Lock lock = stripe.locks.get(table);
+			return lock != null && lock.holders.values().stream().anyMatch(mode -> mode.covers(Mode.SHARED));
+		}
+	}
+
+	/**
+	 * @return the locks the specified transaction holds, by table, page or record
+	 */
+	public Map<Object, Mode> getLocks(TransactionId tid) {
+		Map<Object, Mode> locks = this.held.get(tid);
+		return locks != null ? new HashMap<>(locks) : Collections.emptyMap();
+	}
+
+	/**
+	 * Set the number of page locks on a table a transaction holds before it
+	 * locks the table instead; {@link #DEFAULT_ESCALATION_THRESHOLD} by
+	 * default.
+	 */
+	public void setEscalationThreshold(int pages) {
+		this.escalationThreshold = pages;
+	}
+
+	public int getEscalationThreshold() {
+		return this.escalationThreshold;
+	}
+
+	/**
+	 * Set how the detector chooses the transaction to abort in a deadlock;
+	 * {@link VictimPolicy#YOUNGEST} by default.
+	 */
+	public void setVictimPolicy(VictimPolicy policy) {
+		this.victimPolicy = policy;
+	}
+
+	public VictimPolicy getVictimPolicy() {
+		return this.victimPolicy;
+	}
+
+	/**
+	 * Set how deadlocks are handled. Only change the strategy while no
+	 * transaction holds or waits for a lock, e.g. at startup.
+	 */
+	public void setStrategy(Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public Strategy getStrategy() {
+		return this.strategy;
+	}
+
+	/**
+	 * @return the number of transactions aborted to break or prevent a
+	 *         deadlock
+	 */
+	public long getDeadlockCount() {
+		return this.aborted.sum();
+	}
+
+	/**
+	 * @return the number of locks held or requested, for tests
+	 */
+	int getNumLocks() {
+		int n = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				n += stripe.locks.size();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Grant the requests at the head of the queue of a lock, as long as they
+	 * are compatible with the holders, and wake their transactions up.
+	 * Called with the stripe of the lock held.
+	 */
+	private void grant(Object resource, Lock lock) {
+		boolean granted = false;
+		Request request;
+		while ((request = lock.queue.peekFirst()) != null && lock.compatible(request)) {
+			lock.queue.pollFirst();
+			this.waiting.remove(request.tid, request);
+			boolean upgrade = lock.holders.put(request.tid, request.mode) != null;
+			this.held.computeIfAbsent(request.tid, foo -> new ConcurrentHashMap<>())
+					.put(resource, request.mode);
+			if (!upgrade && resource instanceof PageId)
+				this.pageCounts.computeIfAbsent(request.tid, foo -> new ConcurrentHashMap<>())
+						.merge(((PageId) resource).getTableId(), 1, Integer::sum);
+			request.granted = true;
+			granted = true;
+		}
+		if (granted)
+			this.stripeOf(resource).notifyAll();
+	}
+
+	/**
+	 * Drop a lock from its stripe once nobody holds or requests it.
+	 */
+	private void reclaim(Stripe stripe, Object resource, Lock lock) {
+		if (lock.holders.isEmpty() && lock.queue.isEmpty())
+			stripe.locks.remove(resource);
+	}
+
+	/**
+	 * Withdraw a request that is still waiting, and grant the requests
+	 * behind it that may proceed now. Called with its stripe held.
+	 */
+	private void withdraw(Request request) {
+		Stripe stripe = this.stripeOf(request.resource);
+		Lock lock = stripe.locks.get(request.resource);
+		lock.queue.remove(request);
+		this.waiting.remove(request.tid, request);
+		this.grant(request.resource, lock);
+		this.reclaim(stripe, request.resource, lock);
+	}
+
+	/**
+	 * Withdraw a request that is still waiting, and wake its transaction up
+	 * to abort. Called with its stripe held.
+	 */
+	private void abort(Request request) {
+		request.aborted = true;
+		this.withdraw(request);
+		this.stripeOf(request.resource).notifyAll();
+		this.aborted.increment();
+	}
+
+	/**
+	 * Wait-die: abort the requests waiting for the specified lock that wait
+	 * for an older transaction. Called with its stripe held, whenever a
+	 * request is queued: that is the only time a waiting request can start
+	 * waiting for another transaction, since requests only move up the
+	 * queue, except upgrades.
+	 */
+	private void die(Lock lock) {
+		for (Request request : new ArrayList<>(lock.queue)) {
+			if (request.aborted || request.granted)
+				continue; // withdrawn, or granted once one before it was
+			for (TransactionId blocker : lock.blockers(request)) {
+				if (blocker.getId() < request.tid.getId()) {
+					this.abort(request);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wound-wait: mark the younger transactions the requests waiting for the
+	 * specified lock wait for as wounded. Called with its stripe held,
+	 * whenever a request is queued.
+	 *
+	 * @return the transactions wounded, whose waits are to be aborted with
+	 *         the stripe released, see {@link #wound}
+	 */
+	private List<TransactionId> wounds(Lock lock) {
+		List<TransactionId> wounds = new ArrayList<>();
+		for (Request request : lock.queue) {
+			for (TransactionId blocker : lock.blockers(request)) {
+				if (blocker.getId() > request.tid.getId() && this.wounded.add(blocker))
+					wounds.add(blocker);
+			}
+		}
+		return wounds;
+	}
+
+	/**
+	 * Abort the request a wounded transaction waits for, if any. Without it,
+	 * the transaction aborts the next time it requests a lock or waits.
+	 */
+	private void wound(TransactionId victim) {
+		Request request = this.waiting.get(victim);
+		if (request == null)
+			return;
+		synchronized (this.stripeOf(request.resource)) {
+			if (!request.granted && !request.aborted && this.waiting.get(victim) == request)
+				this.abort(request);
+		}
+	}
+
+	/**
+	 * Start the detector unless it runs already, or wake it up if it is
+	 * about to stop.
+	 */
+	private synchronized void startDetector() {
+		if (this.detector != null) {
+			this.notifyAll();
+			return;
+		}
+		this.detector = new Thread(this::detect, "simpledb-deadlock-detector");
+		this.detector.setDaemon(true);
+		this.detector.start();
+	}
+
+	/**
+	 * The loop of the detector: break the deadlocks every
+	 * {@link #DETECT_MILLIS} ms while some transaction waits.
+	 */
+	private void detect() {
+		try {
+			while (true) {
+				synchronized (this) {
+					if (this.waiting.isEmpty())
+						this.wait(IDLE_MILLIS);
+					if (this.waiting.isEmpty()) {
+						this.detector = null;
+						return;
+					}
+				}
+				Thread.sleep(DETECT_MILLIS);
+				this.breakDeadlocks();
+			}
+		}
+		catch (InterruptedException e) {
+			synchronized (this) {
+				this.detector = null;
+			}
+		}
+	}
+
+	/**
+	 * Build the wait-for graph, and abort a victim in each of its cycles.
+	 *
+	 * @return the number of transactions aborted
+	 */
+	int breakDeadlocks() {
+		HashMap<TransactionId, List<TransactionId>> graph = new HashMap<>();
+		HashMap<TransactionId, Request> requests = new HashMap<>();
+		this.waitsFor(0, graph, requests);
+
+		int aborted = 0;
+		List<TransactionId> cycle;
+		while ((cycle = findCycle(graph)) != null) {
+			TransactionId victim = this.victimPolicy.choose(this, cycle);
+			graph.remove(victim);
+
+			// a deadlock lasts until one of its transactions is aborted, so
+			// the victim still waits unless it was interrupted meanwhile
+			Request request = requests.get(victim);
+			Stripe stripe = this.stripeOf(request.resource);
+			synchronized (stripe) {
+				if (request.granted || request.aborted || this.waiting.get(victim) != request)
+					continue;
+				this.abort(request);
+			}
+			aborted++;
+		}
+		return aborted;
+	}
+
+	/**
+	 * Copy the wait-for graph, see {@link Lock#blockers}. The stripes from the specified
+	 * one on are all locked, in order, while the graph is copied, so that
+	 * the copy is consistent; nothing else ever locks two stripes, so this
+	 * cannot deadlock.
+	 */
+	private void waitsFor(int from, Map<TransactionId, List<TransactionId>> graph,
+	                      Map<TransactionId, Request> requests) {
+		if (from < STRIPES) {
+			synchronized (this.stripes[from]) {
+				this.waitsFor(from + 1, graph, requests);
+			}
+			return;
+		}
+
+		for (Request request : this.waiting.values()) {
+			Lock lock = this.stripeOf(request.resource).locks.get(request.resource);
+			graph.put(request.tid, lock.blockers(request));
+			requests.put(request.tid, request);
+		}
+	}
+
+	/**
+	 * @return the transactions of a cycle of the specified graph, or null if
+	 *         it has none
+	 */
+	private static List<TransactionId> findCycle(Map<TransactionId, List<TransactionId>> graph) {
+		HashSet<TransactionId> done = new HashSet<>();
+		for (TransactionId tid : graph.keySet()) {
+			List<TransactionId> cycle = findCycle(graph, tid, new LinkedHashSet<>(), done);
+			if (cycle != null)
+				return cycle;
+		}
+		return null;
+	}
+
+	private static List<TransactionId> findCycle(Map<TransactionId, List<TransactionId>> graph,
+	                                             TransactionId tid, LinkedHashSet<TransactionId> path,
+	                                             Set<TransactionId> done) {
+		if (path.contains(tid)) {
+			List<TransactionId> cycle = new ArrayList<>(path);
+			return cycle.subList(cycle.indexOf(tid), cycle.size());
+		}
+		if (done.contains(tid))
+			return null;
+
+		path.add(tid);
+		for (TransactionId next : graph.getOrDefault(tid, Collections.emptyList())) {
+			List<TransactionId> cycle = findCycle(graph, next, path, done);
+			if (cycle != null)
+				return cycle;
+		}
+		path.remove(tid);
+		done.add(tid);
+		return null;
+	}
+
+	private Stripe stripeOf(Object resource) {
+		return this.stripes[Math.floorMod(resource.hashCode(), STRIPES)];
+	}
+
+	/** A stripe of the lock table; its monitor guards its locks. */
+	private static class Stripe {
+		private final HashMap<Object, Lock> locks = new HashMap<>();
+	}
+
+	/** The key of the lock on a table in the lock table. */
+	private static class Table {
+		private final int tableId;
+
+		Table(int tableId) {
+			this.tableId = tableId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Table && ((Table) obj).tableId == this.tableId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(this.tableId) * 31 + 17;
+		}
+
+		@Override
+		public String toString() {
+			return "table " + this.tableId;
+		}
+	}
+
+	/** The holders of the lock on a table, page or record, and the requests waiting for it. */
+	private static class Lock {
+		private final HashMap<TransactionId, Mode> holders = new HashMap<>(2);
+		private final ArrayDeque<Request> queue = new ArrayDeque<>(2);
+
+		/**
+		 * @return whether the specified request is compatible with the locks
+		 *         held by other transactions
+		 */
+		boolean compatible(Request request) {
+			for (Map.Entry<TransactionId, Mode> holder : this.holders.entrySet()) {
+				if (!holder.getKey().equals(request.tid) && !holder.getValue().compatible(request.mode))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the transactions a waiting request waits for: those
+		 *         holding the lock in an incompatible mode, and those
+		 *         requesting it before it
+		 */
+		List<TransactionId> blockers(Request request) {
+			List<TransactionId> blockers = new ArrayList<>();
+			this.holders.forEach((holder, mode) -> {
+				if (!holder.equals(request.tid) && !mode.compatible(request.mode))
+					blockers.add(holder);
+			});
+			for (Request r : this.queue) {
+				if (r == request)
+					break;
+				blockers.add(r.tid);
+			}
+			return blockers;
+		}
+	}
+
+	/**
+	 * A request for a lock, granted once it is taken off the queue, or
+	 * aborted if it is withdrawn to break a deadlock.
+	 */
+	private static class Request {
+		private final TransactionId tid;
+		private final Object resource; // a Table, a PageId or a RecordId
+		private final Mode mode;
+		// guarded by the stripe of the lock
+		private boolean granted = false;
+		private boolean aborted = false;
+
+		Request(TransactionId tid, Object resource, Mode mode) {
+			this.tid = tid;
+			this.resource = resource;
+			this.mode = mode;
+		}
+	}
+}
@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -88,10 +89,15 @@ public class LogFile {
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+    // currentOffset when the log was last forced: records that end before
+    // it are on disk
+    private volatile long flushedOffset = 0;
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // bytes of update records logged by each live transaction //protected by this
+    HashMap<Long,Long> tidToBytesLogged = new HashMap<Long,Long>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -149,21 +155,22 @@ public class LogFile {
 
         synchronized (Database.getBufferPool()) {
 
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            rollback(tid);
+
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
                 raf.writeLong(currentOffset);
                 currentOffset = raf.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToBytesLogged.remove(tid.getId());
             }
         }
     }
@@ -184,6 +191,32 @@ public class LogFile {
         currentOffset = raf.getFilePointer();
         force();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToBytesLogged.remove(tid.getId());
+    }
+
+    /** Write a commit or abort record for the specified tid and force
+        the log, if the transaction logged records that no commit or
+        abort record completed yet.  The buffer pool calls this for
+        every transaction it completes, so that the update records of a
+        transaction it commits directly, without {@link Transaction},
+        are not undone by {@link #recover}.  An aborting transaction
+        must be rolled back first.
+
+        @param tid The completing transaction.
+        @param commit Whether it commits.
+    */
+    public synchronized void logCompletion(TransactionId tid, boolean commit)
+        throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            return; // nothing logged, or completed already
+        preAppend();
+        raf.writeInt(commit ? COMMIT_RECORD : ABORT_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+        tidToFirstLogRecord.remove(tid.getId());
+        tidToBytesLogged.remove(tid.getId());
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -191,14 +224,22 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset just past the record, which must be forced
+        before the page is written to disk
+        <p>
+        The buffer pool also logs the pages it steals from running
+        transactions this way, so that {@link #rollback} and
+        {@link #recover} can undo them.
 
         @see simpledb.Page#getBeforeImage
+        @see #getFlushedOffset
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        long start = currentOffset;
         /* update record conists of
 
            record type
@@ -214,8 +255,13 @@ public class LogFile {
         writePageData(raf,after);
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
+        tidToBytesLogged.merge(tid.getId(), currentOffset - start, Long::sum);
+        // a transaction the buffer pool logs for without a BEGIN record,
+        // see logCompletion
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), start);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return currentOffset;
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -240,9 +286,9 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = PageCodec.encode(p);
+        raf.writeInt(pageData.remaining());
+        raf.write(pageData.array(), pageData.arrayOffset() + pageData.position(), pageData.remaining());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +311,17 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors too, so look for the
+            // Page(PageId id, byte[] data) one required by the Page interface
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class
+                        && params[0].isAssignableFrom(idClass))
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +331,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -316,10 +372,20 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The pages
+        of the buffer pool are recorded too, see {@link #getHotPagesFile}. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
+            // the buffer pool logs pages with its latches held, so it is
+            // flushed before this is locked; holding the buffer pool lock
+            // keeps committing transactions from logging pages meanwhile
+            Database.getBufferPool().flushAllPages();
+            try {
+                Database.getBufferPool().saveHotPages(getHotPagesFile());
+            } catch (IOException e) {
+                e.printStackTrace(); // only costs a cold buffer pool after a restart
+            }
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
@@ -327,7 +393,6 @@ public class LogFile {
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
-                Database.getBufferPool().flushAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -450,6 +515,7 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        flushedOffset = 0; // offsets changed, and the new file was not forced
         //print();
     }
 
@@ -464,21 +530,83 @@ public class LogFile {
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
+            // the oldest before image of each page the transaction logged
+            Map<PageId, Page> before = new LinkedHashMap<PageId, Page>();
             synchronized(this) {
                 preAppend();
-                // TODO
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    return; // nothing logged, or already rolled back
+                for (LogRecord r : readRecords(first)) {
+                    if (r.type == UPDATE_RECORD && r.tid == tid.getId())
+                        before.putIfAbsent(r.before.getId(), r.before);
+                }
+            }
+
+            // the pages are written without the log locked, as the buffer
+            // pool takes its latches before the log
+            for (Page p : before.values())
+                restore(p);
+        }
+    }
+
+    /** Write a page logged before or after an update to disk, and drop
+        the cached version of the page from the buffer pool. */
+    private void restore(Page p) throws IOException {
+        Database.getBufferPool().discardPage(p.getId());
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+    }
+
+    /** A log record read back from the log file. */
+    private static class LogRecord {
+        int type;
+        long tid;
+        Page before, after; // only for UPDATE records
+    }
+
+    /** Read the complete log records from the specified offset to the end
+        of the log, then move to the end of the last one, so a record torn
+        by a crash is overwritten by the next record appended. */
+    private List<LogRecord> readRecords(long offset) throws IOException {
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        raf.seek(offset);
+        long end = offset;
+        while (true) {
+            try {
+                LogRecord r = new LogRecord();
+                r.type = raf.readInt();
+                r.tid = raf.readLong();
+                switch (r.type) {
+                case UPDATE_RECORD:
+                    r.before = readPageData(raf);
+                    r.after = readPageData(raf);
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                    break;
+                }
+                raf.readLong(); // start offset
+                records.add(r);
+                end = raf.getFilePointer();
+            } catch (EOFException e) {
+                break;
             }
         }
+        raf.seek(end);
+        return records;
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -491,20 +619,105 @@ public class LogFile {
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
+            List<LogRecord> records;
+            Set<Long> committed = new HashSet<Long>();
+            Set<Long> losers = new LinkedHashSet<Long>();
             synchronized (this) {
                 recoveryUndecided = false;
-                // TODO
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                // the log was truncated at the last checkpoint, which
+                // flushed every page: the records before it are not needed
+                records = readRecords(LONG_SIZE);
+                raf.setLength(raf.getFilePointer());
+                currentOffset = raf.getFilePointer();
+                for (LogRecord r : records) {
+                    if (r.type == BEGIN_RECORD || r.type == UPDATE_RECORD)
+                        losers.add(r.tid);
+                    else if (r.type == COMMIT_RECORD || r.type == ABORT_RECORD)
+                        losers.remove(r.tid);
+                    if (r.type == COMMIT_RECORD)
+                        committed.add(r.tid);
+                }
+            }
+
+            // redo the committed transactions, whose pages may not have
+            // been written (NO-FORCE), in log order
+            for (LogRecord r : records) {
+                if (r.type == UPDATE_RECORD && committed.contains(r.tid))
+                    restore(r.after);
+            }
+            // undo the transactions that did not finish, whose pages may
+            // have been written (STEAL), newest first so the oldest before
+            // image of each page is the one left
+            for (int i = records.size() - 1; i >= 0; i--) {
+                LogRecord r = records.get(i);
+                if (r.type == UPDATE_RECORD && losers.contains(r.tid))
+                    restore(r.before);
+            }
+
+            // the losers are rolled back now: make sure they are not undone
+            // again over later transactions by the next recovery
+            synchronized (this) {
+                for (long tid : losers) {
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
+                tidToFirstLogRecord.clear();
+                tidToBytesLogged.clear();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // TODO
+    public synchronized void print() throws IOException {
+        if (raf.length() < LONG_SIZE)
+            return; // nothing logged yet
+        long offset = raf.getFilePointer();
+        raf.seek(0);
+        System.out.println("checkpoint: " + raf.readLong());
+        for (LogRecord r : readRecords(LONG_SIZE)) {
+            String[] names = {null, "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT"};
+            String name = r.type > 0 && r.type < names.length ? names[r.type] : "UNKNOWN " + r.type;
+            if (r.type == UPDATE_RECORD)
+                System.out.println(name + " " + r.tid + " " + r.before.getId());
+            else
+                System.out.println(name + " " + r.tid);
+        }
+        raf.seek(offset);
     }
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        flushedOffset = currentOffset;
+    }
+
+    /** Return the file the pages of the buffer pool are recorded in at
+        every checkpoint, next to the log, for
+        {@link BufferPool#warmUp(File)} to load them back after a restart.
+    */
+    public File getHotPagesFile() {
+        return new File(logFile.getPath() + ".hot");
+    }
+
+    /** Return the number of bytes of update records the specified
+        transaction logged so far, or 0 once it completed.
+    */
+    public synchronized long getBytesLogged(TransactionId tid) {
+        return tidToBytesLogged.getOrDefault(tid.getId(), 0L);
+    }
+
+    /** Return the offset up to which the log was forced to disk.  A page
+        whose last update record ends past it must not be written to disk
+        before the log is forced again (write ahead logging.)
+    */
+    public long getFlushedOffset() {
+        return flushedOffset;
     }
 
 }
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Write the same bytes as {@link #getPageData()} to the specified buffer,
+     * starting at its position. Pages that are written often override this to
+     * serialize themselves without building an intermediate array.
+     *
+     * @see PageCodec
+     */
+    default void writePageData(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -56,4 +69,13 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * A transaction is about to modify this page: keep a copy of its current
+     * content as the before image, unless one is kept already. Pages that
+     * copy their before image eagerly, when they are read and in
+     * {@link #setBeforeImage()}, need not do anything here.
+     */
+    default void captureBeforeImage() {
+    }
 }
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * PageArena keeps clean pages evicted from the {@link BufferPool} serialized
+ * in fixed-size slots of direct byte buffers, off the Java heap. A page found
+ * in the arena is decoded again with {@link DbFile#decodePage} instead of
+ * being read from disk, so a large arena behind a small buffer pool caches
+ * many pages without adding objects for the garbage collector to trace.
+ * <p>
+ * A page leaves the arena when it is decoded, as the buffer pool then holds
+ * it; the arena replaces its own pages with a {@link ClockPolicy} when it is
+ * full. Each partition of the buffer pool has its own arena, only used with
+ * the latch of the partition held, so this class is not thread safe.
+ */
+public class PageArena {
+	// a direct buffer cannot be larger than 2GB, so slots are spread over
+	// chunks of this size
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	private final int slotSize;
+	private final int slotsPerChunk;
+	private final ByteBuffer[] chunks;
+	// the number of bytes the page of each slot wrote
+	private final int[] lengths;
+
+	private final HashMap<PageId, Integer> slots = new HashMap<>();
+	private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+	private final ReplacementPolicy policy;
+
+	/**
+	 * @param capacity the number of pages of the arena
+	 */
+	public PageArena(int capacity) {
+		this.slotSize = BufferPool.getPageSize();
+		this.slotsPerChunk = CHUNK_BYTES / this.slotSize;
+		this.chunks = new ByteBuffer[(capacity + this.slotsPerChunk - 1) / this.slotsPerChunk];
+		for (int i = 0; i < this.chunks.length; i++) {
+			int slots = Math.min(this.slotsPerChunk, capacity - i * this.slotsPerChunk);
+			this.chunks[i] = ByteBuffer.allocateDirect(slots * this.slotSize);
+		}
+		this.lengths = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			this.freeSlots.add(i);
+		this.policy = new ClockPolicy(capacity);
+	}
+
+	/**
+	 * @return the number of pages of the arena
+	 */
+	public int getCapacity() {
+		return this.lengths.length;
+	}
+
+	/**
+	 * @return the number of pages in the arena
+	 */
+	public int size() {
+		return this.slots.size();
+	}
+
+	/**
+	 * Serialize a clean page into the arena, replacing its previous version
+	 * if any, or another page if the arena is full.
+	 */
+	void put(Page page) {
+		if (this.lengths.length == 0)
+			return;
+
+		PageId pid = page.getId();
+		Integer slot = this.slots.get(pid);
+		if (slot == null) {
+			if (this.freeSlots.isEmpty())
+				this.freeSlots.add(this.slots.remove(this.policy.chooseVictim(p -> true)));
+			slot = this.freeSlots.poll();
+			this.slots.put(pid, slot);
+		}
+		this.policy.pageAdded(pid);
+
+		ByteBuffer buf = this.slot(slot);
+		page.writePageData(buf);
+		this.lengths[slot] = buf.position() - slot % this.slotsPerChunk * this.slotSize;
+	}
+
+	/**
+	 * Remove a page from the arena.
+	 *
+	 * @return the data of the page, or null if it is not in the arena
+	 */
+	byte[] take(PageId pid) {
+		Integer slot = this.slots.remove(pid);
+		if (slot == null)
+			return null;
+
+		this.policy.pageRemoved(pid);
+		this.freeSlots.add(slot);
+		byte[] data = new byte[this.lengths[slot]];
+		this.slot(slot).get(data);
+		return data;
+	}
+
+	/**
+	 * Drop a page from the arena, e.g. because it changed on disk.
+	 */
+	void remove(PageId pid) {
+		Integer slot = this.slots.remove(pid);
+		if (slot != null) {
+			this.policy.pageRemoved(pid);
+			this.freeSlots.add(slot);
+		}
+	}
+
+	/**
+	 * @return a view of the chunk of the specified slot, with its position and
+	 *         limit around the slot
+	 */
+	private ByteBuffer slot(int slot) {
+		ByteBuffer buf = this.chunks[slot / this.slotsPerChunk].duplicate();
+		int offset = slot % this.slotsPerChunk * this.slotSize;
+		buf.limit(offset + this.slotSize);
+		buf.position(offset);
+		return buf;
+	}
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageCodec serializes pages with {@link Page#writePageData(ByteBuffer)}
+ * straight into a buffer, either a fresh array for
+ * {@link Page#getPageData()} or a scratch buffer owned by the calling thread
+ * for writing a page to a file or to the log. The scratch buffer is reused
+ * for every page the thread writes, so flushing does not allocate.
+ */
+public class PageCodec {
+	private static final byte[] ZEROS = new byte[1024];
+
+	private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<>();
+
+	/**
+	 * Serialize a page into this thread's scratch buffer.
+	 *
+	 * @return the scratch buffer, holding the page data between its position
+	 *         and its limit. It is only valid until the next call by the same
+	 *         thread.
+	 */
+	public static ByteBuffer encode(Page page) {
+		int size = BufferPool.getPageSize();
+
+		ByteBuffer buf = scratch.get();
+		if (buf == null || buf.capacity() < size) {
+			buf = ByteBuffer.allocate(size);
+			scratch.set(buf);
+		}
+
+		buf.clear();
+		buf.limit(size);
+		page.writePageData(buf);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Serialize a page into a new array of the specified length, which must
+	 * be the number of bytes the page writes.
+	 */
+	public static byte[] toByteArray(Page page, int size) {
+		byte[] data = new byte[size];
+		page.writePageData(ByteBuffer.wrap(data));
+		return data;
+	}
+
+	/**
+	 * Write n zero bytes to a buffer.
+	 */
+	public static void putZeros(ByteBuffer buf, int n) {
+		while (n > 0) {
+			int len = Math.min(n, ZEROS.length);
+			buf.put(ZEROS, 0, len);
+			n -= len;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PageWriter is the background writer of a {@link BufferPool}. Once it is
+ * started, a committing transaction only logs its dirty pages and forces the
+ * log; the pages stay dirty in the buffer pool, and the writer trickles them
+ * to disk in batches, in table and page number order, on its own thread.
+ * <p>
+ * See {@link BufferPool#startBackgroundWriter()}.
+ */
+class PageWriter {
+	/** The most pages written in one batch. */
+	static final int BATCH_PAGES = 32;
+	/** The pause after the writer found no more pages to write, in milliseconds. */
+	static final long IDLE_MILLIS = 10;
+
+	private final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "simpledb-pagewriter");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final BufferPool pool;
+
+	PageWriter(BufferPool pool) {
+		this.pool = pool;
+		this.thread.scheduleWithFixedDelay(() -> {
+			try {
+				this.writeAll();
+			}
+			catch (IOException | RuntimeException e) {
+				e.printStackTrace(); // try again in the next round
+			}
+		}, IDLE_MILLIS, IDLE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write batches of committed pages until there are no more.
+	 */
+	private void writeAll() throws IOException {
+		while (this.pool.writeCommittedPages(BATCH_PAGES) == BATCH_PAGES)
+			;
+	}
+
+	/**
+	 * Wait until the pages committed so far are written, e.g. in tests. The
+	 * writer thread writes them once the round it is in, if any, is over.
+	 */
+	void awaitWritten() throws IOException, InterruptedException {
+		try {
+			this.thread.submit(() -> {
+				this.writeAll();
+				return null;
+			}).get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the writer, waiting for the batch it is writing if any.
+	 */
+	void shutdown() {
+		this.thread.shutdown();
+		try {
+			this.thread.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -608,6 +608,8 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // load the pages cached before the last shutdown in the background
+        Database.getBufferPool().warmUp(Database.getLogFile().getHotPagesFile());
 
         String queryFile = null;
 
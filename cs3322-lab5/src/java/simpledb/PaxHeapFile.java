@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are {@link PaxPage}s, which group
+ * the values of each field together inside the page. Pages have the same
+ * slots and header as a HeapPage, so free space is tracked exactly as for a
+ * HeapFile; only the order of the bytes after the header differs.
+ * <p>
+ * A table is stored this way by adding <code>using pax</code> after its
+ * schema in the catalog file; see {@link Catalog#loadSchema}.
+ */
+public class PaxHeapFile extends HeapFile {
+
+	/**
+	 * Constructs a PAX heap file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 */
+	public PaxHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	}
+
+	@Override
+	protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+		return new PaxPage(pid, data);
+	}
+
+	@Override
+	public boolean supportsRecordLocking() {
+		return false;
+	}
+}
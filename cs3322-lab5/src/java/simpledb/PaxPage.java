@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * PaxPage stores the tuples of a {@link PaxHeapFile} column by column: the
+ * page has as many slots as a {@link HeapPage} of the same table and the
+ * same header of used slots, but instead of storing each tuple in one piece
+ * it keeps the values of each field together in a minipage of its own.
+ * <p>
+ * The format of a PaxPage is:
+ * <pre>
+ *   header   one bit per slot, as for a HeapPage
+ *   field 0  of slot 0, slot 1, ... slot numSlots - 1
+ *   field 1  of slot 0, slot 1, ... slot numSlots - 1
+ *   ...
+ *   padding
+ * </pre>
+ * Tuples read from the page decode each field the first time it is
+ * accessed, so a scan that only looks at a few columns of a wide table only
+ * decodes those, reading them from consecutive bytes of the page.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage implements TuplePage {
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HeapPageId pid;
+	private final TupleDesc td;
+	private final byte[] header;
+	private final Tuple[] tuples;
+	private final int numSlots;
+
+	// the page as it was read; never written to
+	private final ByteBuffer data;
+	// offset of the minipage of each field
+	private final int[] columnOffsets;
+	// slots holding a tuple inserted since the page was read, whose fields
+	// are not in data
+	private final BitSet inserted = new BitSet();
+
+	private final BeforeImage beforeImage = new BeforeImage();
+
+	/**
+	 * Create a PaxPage from a set of bytes of data read from disk.
+	 */
+	public PaxPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a PaxPage from the bytes between the position and the limit of
+	 * a buffer. Only the header is read here; the page keeps a reference to
+	 * the buffer and never writes to it, so the caller must not modify it
+	 * either. The position of the buffer is not changed.
+	 */
+	public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = HeapPage.getNumTuples(this.td);
+		this.data = data.slice();
+
+		this.header = new byte[HeapPage.getHeaderSize(this.td)];
+		this.data.duplicate().get(this.header);
+
+		this.columnOffsets = new int[this.td.numFields()];
+		this.columnOffsets[0] = this.header.length;
+		for (int j = 1; j < this.columnOffsets.length; j++)
+			this.columnOffsets[j] = this.columnOffsets[j - 1]
+					+ this.numSlots * this.td.getFieldType(j - 1).getLen();
+
+		this.tuples = new Tuple[this.numSlots];
+	}
+
+	public HeapPageId getId() {
+		return this.pid;
+	}
+
+	/**
+	 * @return the offset of a field of the specified slot in the page data
+	 */
+	private int fieldOffset(int slotId, int fieldIndex) {
+		return this.columnOffsets[fieldIndex] + slotId * this.td.getFieldType(fieldIndex).getLen();
+	}
+
+	private Field readField(int slotId, int fieldIndex) {
+		ByteBuffer buf = this.data.duplicate();
+		buf.position(this.fieldOffset(slotId, fieldIndex));
+		try {
+			return this.td.getFieldType(fieldIndex).parse(buf);
+		}
+		catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * @return the tuple in the specified slot, which must be in use. A tuple
+	 *         read from the page decodes its fields when they are accessed.
+	 */
+	private Tuple getTuple(int slotId) {
+		Tuple t = this.tuples[slotId];
+		if (t == null) {
+			t = new Tuple(this.td, j -> this.readField(slotId, j));
+			t.setRecordId(new RecordId(this.pid, slotId));
+			this.tuples[slotId] = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Returns one field of the tuple in the specified slot.
+	 *
+	 * @throws NoSuchElementException if the slot is empty
+	 */
+	public Field getField(int slotId, int fieldIndex) throws NoSuchElementException {
+		if (!this.isSlotUsed(slotId))
+			throw new NoSuchElementException("slot " + slotId + " is empty");
+		return this.getTuple(slotId).getField(fieldIndex);
+	}
+
+	public byte[] getPageData() {
+		return PageCodec.toByteArray(this, BufferPool.getPageSize());
+	}
+
+	// see Page.java for javadocs
+	public void writePageData(ByteBuffer buf) {
+		int start = buf.position();
+
+		buf.put(this.header);
+
+		ByteBuffer raw = this.data.duplicate();
+		for (int j = 0; j < this.td.numFields(); j++) {
+			int len = this.td.getFieldType(j).getLen();
+			for (int i = 0; i < this.numSlots; i++) {
+				if (!this.isSlotUsed(i))
+					PageCodec.putZeros(buf, len);
+				else if (this.inserted.get(i))
+					this.tuples[i].getField(j).serialize(buf);
+				else {
+					// read from the page: copy the value as it was read
+					int offset = this.fieldOffset(i, j);
+					raw.limit(offset + len);
+					raw.position(offset);
+					buf.put(raw);
+				}
+			}
+		}
+
+		// padding
+		PageCodec.putZeros(buf, BufferPool.getPageSize() - (buf.position() - start));
+	}
+
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; // all 0
+	}
+
+	public void deleteTuple(Tuple t) throws DbException {
+		if (!this.pid.equals(t.getRecordId().getPageId()))
+			throw new DbException("tuple not on this page");
+
+		int k = t.getRecordId().tupleno();
+		if (!this.isSlotUsed(k))
+			throw new DbException("slot already empty");
+
+		this.markSlotUsed(k, false);
+	}
+
+	public void insertTuple(Tuple t) throws DbException {
+		if (this.getNumEmptySlots() == 0)
+			throw new DbException("page is full");
+		if (!this.td.equals(t.getTupleDesc()))
+			throw new DbException("TupleDesc mismatch");
+
+		int i = 0;
+		while (this.header[i >> 3] == (byte) 0xff)
+			i += 8;
+		while (this.isSlotUsed(i))
+			i++;
+
+		this.tuples[i] = t;
+		this.inserted.set(i);
+		t.setRecordId(new RecordId(this.pid, i));
+		this.markSlotUsed(i, true);
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		this.dirtier = dirty ? tid : null;
+	}
+
+	public TransactionId isDirty() {
+		return this.dirtier;
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		return this.numSlots - HeapPage.countUsedSlots(this.header);
+	}
+
+	/**
+	 * Returns the number of empty slots on this page; free space is counted
+	 * in slots, as for a HeapPage.
+	 */
+	public int getFreeSpace() {
+		return this.getNumEmptySlots();
+	}
+
+	public boolean isSlotUsed(int i) {
+		return (this.header[i >> 3] >> (i & 7) & 1) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			this.header[i >> 3] |= 1 << (i & 7);
+		else
+			this.header[i >> 3] &= ~(1 << (i & 7));
+	}
+
+	public Stream<Tuple> stream() {
+		return IntStream.range(0, this.numSlots)
+				.filter(this::isSlotUsed)
+				.mapToObj(this::getTuple);
+	}
+
+	/** Return a view of this page before it was modified
+	 -- used by recovery */
+	public PaxPage getBeforeImage() {
+		try {
+			return new PaxPage(this.pid, this.beforeImage.get(this));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * The current content of this page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 */
+	public void setBeforeImage() {
+		this.beforeImage.set();
+	}
+
+	public void captureBeforeImage() {
+		this.beforeImage.capture(this);
+	}
+}
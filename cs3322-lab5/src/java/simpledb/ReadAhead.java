@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReadAhead watches the page numbers a scan asks for and, once the scan looks
+ * sequential, prefetches the following pages into the buffer pool on a
+ * background I/O thread, so that the scan finds them already cached instead
+ * of waiting for a disk read on every page.
+ * <p>
+ * The read-ahead window starts small and doubles with every sequential
+ * access, up to a quarter of the buffer pool, or half of the ring of the scan
+ * if it has one, so that prefetched pages are not evicted before the scan
+ * reaches them. Any non-sequential access resets it. Prefetched pages are not
+ * locked; see {@link BufferPool#prefetchPage}.
+ */
+class ReadAhead {
+	private static final int MIN_WINDOW = 4;
+
+	private static final ExecutorService ioThread = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "simpledb-readahead");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final int tableId;
+	private final int numPages;
+	private final BufferRing ring;
+
+	private int last = -1;        // last page number accessed
+	private int window = 0;       // current read-ahead window, in pages
+	private int prefetched = -1;  // highest page number already handed to the I/O thread
+
+	/**
+	 * @param tableId the table being scanned
+	 * @param numPages the number of pages of the table when the scan started
+	 * @param ring the ring of the scan, which prefetched pages go into, or
+	 *             null
+	 */
+	ReadAhead(int tableId, int numPages, BufferRing ring) {
+		this.tableId = tableId;
+		this.numPages = numPages;
+		this.ring = ring;
+	}
+
+	/**
+	 * Wait until the pages handed to the I/O thread so far are prefetched,
+	 * e.g. in tests.
+	 */
+	static void awaitPrefetches() throws InterruptedException, ExecutionException {
+		ioThread.submit(() -> { }).get();
+	}
+
+	/**
+	 * Record that the scan is about to read the specified page, and prefetch
+	 * the pages after it if the scan is sequential.
+	 */
+	void access(int pageNo) {
+		BufferPool pool = Database.getBufferPool();
+		int maxWindow = this.ring != null ? this.ring.size() / 2 : pool.getNumPages() / 4;
+
+		if (pageNo == this.last + 1)
+			this.window = Math.min(maxWindow, Math.max(MIN_WINDOW, this.window * 2));
+		else {
+			this.window = 0;
+			this.prefetched = pageNo;
+		}
+		this.last = pageNo;
+
+		int from = Math.max(this.prefetched, pageNo) + 1;
+		int to = Math.min(this.numPages - 1, pageNo + this.window);
+		if (from > to)
+			return;
+
+		this.prefetched = to;
+		ioThread.execute(() -> {
+			for (int i = from; i <= to; i++)
+				pool.prefetchPage(new HeapPageId(this.tableId, i), this.ring);
+		});
+	}
+}
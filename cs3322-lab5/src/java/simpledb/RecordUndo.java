@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RecordUndo keeps the tuples that running transactions inserted into and
+ * deleted from {@link HeapPage}s under record locks, see
+ * {@link BufferPool#setRecordLocking(boolean)}.
+ * <p>
+ * Several running transactions may have changed the same page, so a
+ * transaction that aborts cannot go back to the before image of the page:
+ * its changes are undone one by one instead, latest first. Likewise, the
+ * page written to disk when a transaction commits is a copy of the page
+ * with the changes of the other running transactions undone, so that the
+ * disk never holds uncommitted tuples.
+ * <p>
+ * A slot emptied by a running transaction is kept for its tuple until the
+ * transaction completes, so that the tuple can always be put back.
+ * <p>
+ * The changes to a page are only read and changed with the latch of the
+ * page held, i.e. synchronized on the page, like the page itself.
+ */
+class RecordUndo {
+	private final ConcurrentHashMap<PageId, List<Change>> byPage = new ConcurrentHashMap<>();
+	// the pages each running transaction changed, and whether it changed
+	// them since it last wrote them
+	private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>> byTransaction =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Record that a transaction inserted the specified tuple into its page,
+	 * or deleted it from its page.
+	 */
+	void add(TransactionId tid, Tuple t, boolean inserted) {
+		// the caller may reuse the tuple
+		Tuple copy = new Tuple(t.getTupleDesc());
+		for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+			copy.setField(i, t.getField(i));
+		copy.setRecordId(t.getRecordId());
+
+		PageId pid = t.getRecordId().getPageId();
+		this.byPage.computeIfAbsent(pid, foo -> new ArrayList<>()).add(new Change(tid, copy, inserted));
+		this.byTransaction.computeIfAbsent(tid, foo -> new ConcurrentHashMap<>()).put(pid, true);
+	}
+
+	/**
+	 * @return the slots of the specified page emptied by running
+	 *         transactions other than the specified one
+	 */
+	BitSet reserved(TransactionId tid, PageId pid) {
+		BitSet slots = new BitSet();
+		for (Change change : this.byPage.getOrDefault(pid, Collections.emptyList())) {
+			if (!change.inserted && !change.tid.equals(tid))
+				slots.set(change.tuple.getRecordId().tupleno());
+		}
+		return slots;
+	}
+
+	/**
+	 * @return the pages the specified transaction changed
+	 */
+	Set<PageId> pages(TransactionId tid) {
+		Map<PageId, Boolean> pages = this.byTransaction.get(tid);
+		return pages != null ? pages.keySet() : Collections.emptySet();
+	}
+
+	/**
+	 * @return whether the specified transaction changed the specified page
+	 *         since it last wrote it, see {@link #written}
+	 */
+	boolean isUnwritten(TransactionId tid, PageId pid) {
+		Map<PageId, Boolean> pages = this.byTransaction.get(tid);
+		return pages != null && pages.getOrDefault(pid, false);
+	}
+
+	/**
+	 * Record that the changes of the specified transaction to the specified
+	 * page were written to disk.
+	 */
+	void written(TransactionId tid, PageId pid) {
+		Map<PageId, Boolean> pages = this.byTransaction.get(tid);
+		if (pages != null)
+			pages.replace(pid, false);
+	}
+
+	/**
+	 * @return the page to write for the specified transaction: the page
+	 *         itself if no other running transaction changed it, a copy
+	 *         without their changes otherwise
+	 */
+	Page committed(TransactionId tid, HeapPage page) throws DbException {
+		List<Change> changes = this.byPage.getOrDefault(page.getId(), Collections.emptyList());
+		if (changes.stream().allMatch(change -> change.tid.equals(tid)))
+			return page;
+
+		HeapPage copy = (HeapPage) Database.getCatalog().getDatabaseFile(page.getId().getTableId())
+				.decodePage(page.getId(), page.getPageData());
+		for (int i = changes.size() - 1; i >= 0; i--) {
+			if (!changes.get(i).tid.equals(tid))
+				changes.get(i).undo(copy);
+		}
+		return copy;
+	}
+
+	/**
+	 * Undo the changes of the specified transaction to the specified page,
+	 * latest first, and forget them.
+	 */
+	void undo(TransactionId tid, HeapPage page) throws DbException {
+		List<Change> changes = this.byPage.getOrDefault(page.getId(), Collections.emptyList());
+		for (int i = changes.size() - 1; i >= 0; i--) {
+			if (changes.get(i).tid.equals(tid))
+				changes.get(i).undo(page);
+		}
+		this.forget(tid, page.getId());
+	}
+
+	/**
+	 * Forget the changes of the specified transaction to the specified page,
+	 * once it completes.
+	 *
+	 * @return another transaction that changed the page and is still
+	 *         running, or null if there is none
+	 */
+	TransactionId forget(TransactionId tid, PageId pid) {
+		List<Change> changes = this.byPage.get(pid);
+		if (changes == null)
+			return null;
+		changes.removeIf(change -> change.tid.equals(tid));
+		if (changes.isEmpty()) {
+			this.byPage.remove(pid);
+			return null;
+		}
+		return changes.get(changes.size() - 1).tid;
+	}
+
+	/**
+	 * Forget the pages the specified transaction changed, once it completed.
+	 */
+	void forget(TransactionId tid) {
+		this.byTransaction.remove(tid);
+	}
+
+	/** A tuple inserted or deleted by a running transaction. */
+	private static class Change {
+		private final TransactionId tid;
+		private final Tuple tuple; // with the RecordId it had
+		private final boolean inserted;
+
+		Change(TransactionId tid, Tuple tuple, boolean inserted) {
+			this.tid = tid;
+			this.tuple = tuple;
+			this.inserted = inserted;
+		}
+
+		void undo(HeapPage page) throws DbException {
+			if (this.inserted)
+				page.deleteTuple(this.tuple);
+			else
+				page.insertTuple(this.tuple, this.tuple.getRecordId().tupleno());
+		}
+	}
+}
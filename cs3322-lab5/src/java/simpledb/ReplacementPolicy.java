@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the {@link BufferPool} evicts when it
+ * is full. The buffer pool tells the policy about every page it adds, hits
+ * and drops, and asks it for a victim on a miss.
+ * <p>
+ * The policy is chosen when the buffer pool is constructed, see
+ * {@link BufferPool#BufferPool(int, java.util.function.IntFunction)}; every
+ * partition of the buffer pool has its own instance, only called with the
+ * latch of the partition held, so implementations need not be thread safe.
+ * All operations should take constant time; choosing a victim may have to
+ * skip pages that cannot be evicted, e.g. dirty pages under NO-STEAL, so it
+ * is constant time as long as those are a minority.
+ *
+ * @see ClockPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+
+	/**
+	 * A page was added to the buffer pool, or replaced by a new version.
+	 */
+	void pageAdded(PageId pid);
+
+	/**
+	 * A page already in the buffer pool was requested again.
+	 */
+	void pageAccessed(PageId pid);
+
+	/**
+	 * A page was dropped from the buffer pool other than by being chosen as a
+	 * victim. Pages the policy does not track are ignored.
+	 */
+	void pageRemoved(PageId pid);
+
+	/**
+	 * Choose a page to evict among those accepted by the specified predicate,
+	 * and stop tracking it.
+	 *
+	 * @return the page to evict, or null if no page can be evicted
+	 */
+	PageId chooseVictim(Predicate<PageId> evictable);
+
+	/**
+	 * The number of pages of the buffer pool partition changed, see
+	 * {@link BufferPool#resize(int)}. Policies that do not size anything
+	 * after it need not do anything.
+	 *
+	 * @param capacity the new number of pages of the partition
+	 */
+	default void resize(int capacity) {
+	}
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store strings with their actual length instead of padding every one of
+ * them to {@link Type#STRING_LEN} bytes. Everything else, including the free
+ * space map, extents and read-ahead, works as for a HeapFile.
+ * <p>
+ * A table is stored this way by adding <code>using slotted</code> after its
+ * schema in the catalog file; see {@link Catalog#loadSchema}.
+ */
+public class SlottedHeapFile extends HeapFile {
+
+	/**
+	 * Constructs a slotted heap file backed by the specified file.
+	 *
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 */
+	public SlottedHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	}
+
+	@Override
+	protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+		return new SlottedPage(pid, data);
+	}
+
+	@Override
+	public boolean supportsRecordLocking() {
+		return false;
+	}
+
+	@Override
+	protected int spaceNeeded(Tuple t) {
+		return SlottedPage.spaceNeeded(t);
+	}
+
+	@Override
+	protected int emptyPageFreeSpace() {
+		return SlottedPage.emptyPageFreeSpace();
+	}
+
+	@Override
+	protected int freeSpaceHeaderSize() {
+		return SlottedPage.HEADER_SIZE;
+	}
+
+	@Override
+	protected int headerFreeSpace(byte[] header) {
+		return SlottedPage.headerFreeSpace(header);
+	}
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * SlottedPage stores the tuples of a {@link SlottedHeapFile} as variable
+ * length records, addressed through a slot directory at the start of the
+ * page. A string only takes its actual length plus two bytes, instead of the
+ * fixed {@link Type#STRING_LEN} + 4 bytes of a {@link HeapPage}, so tables of
+ * short strings need far fewer pages.
+ * <p>
+ * The format of a SlottedPage is:
+ * <pre>
+ *   int   number of slots in the directory
+ *   int   bytes used by the directory and the records
+ *   short offset, short length   for each slot; offset 0 if the slot is empty
+ *   ...   free space
+ *   records, packed against the end of the page
+ * </pre>
+ * A record is the fields of a tuple in order: an int takes 4 bytes and a
+ * string a 2 byte length followed by its characters. Records are packed
+ * again every time the page is written, so deleted records leave no holes.
+ * Page sizes up to 64KB are supported.
+ * <p>
+ * Free space is measured in bytes; inserting a tuple takes the size of its
+ * record plus one directory entry.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements TuplePage {
+	static final int HEADER_SIZE = 8;
+	static final int SLOT_SIZE = 4;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HeapPageId pid;
+	private final TupleDesc td;
+	// tuple in each slot of the directory, null if the slot is empty
+	private final ArrayList<Tuple> slots;
+	// bytes used by the directory and the records
+	private int used;
+
+	private final BeforeImage beforeImage = new BeforeImage();
+
+	/**
+	 * Create a SlottedPage from a set of bytes of data read from disk.
+	 */
+	public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a SlottedPage from the bytes between the position and the limit
+	 * of a buffer. The position of the buffer is not changed.
+	 */
+	public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+
+		ByteBuffer buf = data.slice();
+		int numSlots = buf.getInt();
+		buf.getInt(); // used bytes, recomputed below
+		if (numSlots < 0 || HEADER_SIZE + numSlots * SLOT_SIZE > buf.capacity())
+			throw new IOException("corrupt slotted page " + id);
+
+		this.slots = new ArrayList<>(numSlots);
+		this.used = numSlots * SLOT_SIZE;
+		for (int i = 0; i < numSlots; i++) {
+			int offset = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+			int length = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+			if (offset == 0) {
+				this.slots.add(null);
+				continue;
+			}
+
+			buf.position(offset);
+			this.slots.add(this.readRecord(buf, i));
+			this.used += length;
+		}
+	}
+
+	/**
+	 * @return the free space on an empty page
+	 */
+	public static int emptyPageFreeSpace() {
+		return BufferPool.getPageSize() - HEADER_SIZE;
+	}
+
+	/**
+	 * @return the free space on a page, given its first {@link #HEADER_SIZE}
+	 *         bytes
+	 */
+	static int headerFreeSpace(byte[] header) {
+		return emptyPageFreeSpace() - ByteBuffer.wrap(header).getInt(4);
+	}
+
+	/**
+	 * @return the space the specified tuple takes on a page, counting a new
+	 *         directory entry for it
+	 */
+	public static int spaceNeeded(Tuple t) {
+		return recordSize(t) + SLOT_SIZE;
+	}
+
+	/**
+	 * @return the number of bytes of the record of the specified tuple
+	 */
+	static int recordSize(Tuple t) {
+		int size = 0;
+		for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+			Field f = t.getField(j);
+			if (f.getType() == Type.STRING_TYPE)
+				size += 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+			else
+				size += f.getType().getLen();
+		}
+		return size;
+	}
+
+	private Tuple readRecord(ByteBuffer buf, int slotId) throws IOException {
+		Tuple t = new Tuple(this.td);
+		t.setRecordId(new RecordId(this.pid, slotId));
+		for (int j = 0; j < this.td.numFields(); j++) {
+			if (this.td.getFieldType(j) == Type.STRING_TYPE) {
+				int len = buf.getShort() & 0xffff;
+				if (len > Type.STRING_LEN)
+					throw new IOException("bad string length " + len + " on " + this.pid);
+				byte[] bs = new byte[len];
+				buf.get(bs);
+				t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+			}
+			else
+				t.setField(j, new IntField(buf.getInt()));
+		}
+		return t;
+	}
+
+	private static void writeRecord(ByteBuffer buf, Tuple t) {
+		for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+			Field f = t.getField(j);
+			if (f.getType() == Type.STRING_TYPE) {
+				String s = ((StringField) f).getValue();
+				int len = Math.min(s.length(), Type.STRING_LEN);
+				buf.putShort((short) len);
+				for (int i = 0; i < len; i++)
+					buf.put((byte) s.charAt(i));
+			}
+			else
+				f.serialize(buf);
+		}
+	}
+
+	public HeapPageId getId() {
+		return this.pid;
+	}
+
+	public int getFreeSpace() {
+		return emptyPageFreeSpace() - this.used;
+	}
+
+	/**
+	 * @return the number of tuples on this page
+	 */
+	public int getNumTuples() {
+		return (int) this.slots.stream().filter(Objects::nonNull).count();
+	}
+
+	public boolean isSlotUsed(int i) {
+		return i < this.slots.size() && this.slots.get(i) != null;
+	}
+
+	public void insertTuple(Tuple t) throws DbException {
+		if (!this.td.equals(t.getTupleDesc()))
+			throw new DbException("TupleDesc mismatch");
+
+		int slotId = this.slots.indexOf(null);
+		int needed = recordSize(t) + (slotId == -1 ? SLOT_SIZE : 0);
+		if (needed > this.getFreeSpace())
+			throw new DbException("page is full");
+
+		if (slotId == -1) {
+			slotId = this.slots.size();
+			this.slots.add(t);
+		}
+		else
+			this.slots.set(slotId, t);
+
+		this.used += needed;
+		t.setRecordId(new RecordId(this.pid, slotId));
+	}
+
+	public void deleteTuple(Tuple t) throws DbException {
+		if (!this.pid.equals(t.getRecordId().getPageId()))
+			throw new DbException("tuple not on this page");
+
+		int slotId = t.getRecordId().tupleno();
+		if (!this.isSlotUsed(slotId))
+			throw new DbException("slot already empty");
+
+		this.used -= recordSize(this.slots.get(slotId));
+		this.slots.set(slotId, null);
+
+		// empty slots at the end of the directory are given back
+		while (!this.slots.isEmpty() && this.slots.get(this.slots.size() - 1) == null) {
+			this.slots.remove(this.slots.size() - 1);
+			this.used -= SLOT_SIZE;
+		}
+	}
+
+	public Stream<Tuple> stream() {
+		return this.slots.stream().filter(Objects::nonNull);
+	}
+
+	public byte[] getPageData() {
+		return PageCodec.toByteArray(this, BufferPool.getPageSize());
+	}
+
+	// see Page.java for javadocs
+	public void writePageData(ByteBuffer buf) {
+		int start = buf.position();
+		int pageSize = BufferPool.getPageSize();
+
+		buf.putInt(this.slots.size());
+		buf.putInt(this.used);
+
+		// the directory; records are laid out backwards from the end of the
+		// page in slot order
+		int end = pageSize;
+		for (Tuple t : this.slots) {
+			if (t == null) {
+				buf.putInt(0);
+				continue;
+			}
+			int len = recordSize(t);
+			end -= len;
+			buf.putShort((short) end);
+			buf.putShort((short) len);
+		}
+
+		PageCodec.putZeros(buf, end - (buf.position() - start));
+
+		for (int i = this.slots.size() - 1; i >= 0; i--)
+			if (this.slots.get(i) != null)
+				writeRecord(buf, this.slots.get(i));
+	}
+
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; // all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		this.dirtier = dirty ? tid : null;
+	}
+
+	public TransactionId isDirty() {
+		return this.dirtier;
+	}
+
+	/** Return a view of this page before it was modified
+	 -- used by recovery */
+	public SlottedPage getBeforeImage() {
+		try {
+			return new SlottedPage(this.pid, this.beforeImage.get(this));
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			// should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * The current content of this page becomes its before image. Nothing is
+	 * copied until the page is about to be modified again.
+	 */
+	public void setBeforeImage() {
+		this.beforeImage.set();
+	}
+
+	public void captureBeforeImage() {
+		this.beforeImage.capture(this);
+	}
+}
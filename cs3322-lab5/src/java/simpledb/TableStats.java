@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -102,7 +103,9 @@ public class TableStats {
 				.toArray();
 		
 		Transaction trans = new Transaction();
-		DbFileIterator it = file.iterator(trans.getId());
+		// both passes share one ring, so that collecting statistics on a
+		// large table does not flush the buffer pool
+		DbFileIterator it = file.iterator(trans.getId(), BufferRing.forScan(this.numPages));
 		try {
 			it.open();
 			while (it.hasNext()) {
@@ -150,6 +153,12 @@ public class TableStats {
 			e.printStackTrace();
 		} finally {
 			it.close();
+			// release the table lock the scan took
+			try {
+				Database.getBufferPool().transactionComplete(trans.getId());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 	
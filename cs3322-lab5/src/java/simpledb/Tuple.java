@@ -1,9 +1,12 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -19,6 +22,9 @@ public class Tuple implements Serializable {
 	private final ArrayList<Field> fields;
 	// Although this is final, but calling set() is still allowed.
 	private RecordId recordId;
+	// decodes the fields that have not been set yet, for a tuple read lazily
+	// from a page; null for tuples built field by field
+	private transient IntFunction<Field> source;
 	
 	/**
 	 * Create a new tuple with the specified schema (type).
@@ -32,6 +38,16 @@ public class Tuple implements Serializable {
 		this.fields = new ArrayList<>(Arrays.asList(new Field[td.numFields()]));
 	}
 	
+	/**
+	 * Create a tuple whose fields are decoded by the specified function the
+	 * first time they are accessed, e.g. from the columns of a
+	 * {@link PaxPage}. Fields set explicitly are never decoded.
+	 */
+	Tuple(TupleDesc td, IntFunction<Field> source) {
+		this(td);
+		this.source = source;
+	}
+	
 	private Tuple(TupleDesc td, ArrayList<Field> fields) {
 		assert td.numFields() == fields.size();
 		this.tupleDesc = td;
@@ -98,7 +114,24 @@ public class Tuple implements Serializable {
 	 *            field index to return. Must be a valid index.
 	 */
 	public Field getField(int i) {
-		return this.fields.get(i);
+		Field f = this.fields.get(i);
+		if (f == null && this.source != null) {
+			f = this.source.apply(i);
+			this.fields.set(i, f);
+		}
+		return f;
+	}
+	
+	/**
+	 * @return all fields of this tuple, decoding the ones not accessed yet
+	 */
+	private ArrayList<Field> loadedFields() {
+		if (this.source != null) {
+			for (int i = 0; i < this.fields.size(); i++)
+				this.getField(i);
+			this.source = null;
+		}
+		return this.fields;
 	}
 	
 	/**
@@ -110,7 +143,7 @@ public class Tuple implements Serializable {
 	 * where \t is any whitespace (except a newline)
 	 */
 	public String toString() {
-		return this.fields.stream()
+		return this.loadedFields().stream()
 				.map(Field::toString)
 				.collect(Collectors.joining(" "));
 	}
@@ -120,11 +153,11 @@ public class Tuple implements Serializable {
 	 *        An iterator which iterates over all the fields of this tuple
 	 * */
 	public Iterator<Field> fieldsIterator() {
-		return this.fields.iterator();
+		return this.loadedFields().iterator();
 	}
 	
 	public Stream<Field> fieldsStream() {
-		return this.fields.stream();
+		return this.loadedFields().stream();
 	}
 	
 	/**
@@ -137,8 +170,8 @@ public class Tuple implements Serializable {
 	public static Tuple merge(Tuple a, Tuple b) {
 		return new Tuple(TupleDesc.merge(a.getTupleDesc(), b.getTupleDesc()),
 				new ArrayList<Field>() {{
-					this.addAll(a.fields);
-					this.addAll(b.fields);
+					this.addAll(a.loadedFields());
+					this.addAll(b.loadedFields());
 				}});
 	}
 	
@@ -150,6 +183,11 @@ public class Tuple implements Serializable {
 		Tuple o = (Tuple) obj;
 		return this.tupleDesc.numFields() == o.tupleDesc.numFields()
 				&& this.tupleDesc.equals(o.tupleDesc)
-				&& this.fields.equals(o.fields);
+				&& this.loadedFields().equals(o.loadedFields());
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.loadedFields();
+		out.defaultWriteObject();
 	}
 }
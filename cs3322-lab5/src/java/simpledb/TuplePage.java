@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * TuplePage is implemented by the pages of a {@link HeapFile}, whatever their
+ * layout on disk: the file stores tuples in them, in no particular order, and
+ * addresses a tuple by its page and its slot on the page.
+ * <p>
+ * Free space is measured in units chosen by the page format, e.g. tuple slots
+ * for fixed-length {@link HeapPage}s or bytes for {@link SlottedPage}s; see
+ * {@link HeapFile#spaceNeeded(Tuple)}.
+ */
+public interface TuplePage extends Page {
+
+	public HeapPageId getId();
+
+	/**
+	 * Adds the specified tuple to the page, and sets its RecordId.
+	 *
+	 * @throws DbException if the page has no room for the tuple, or the
+	 *         TupleDesc of the tuple does not match the table
+	 */
+	public void insertTuple(Tuple t) throws DbException;
+
+	/**
+	 * Delete the specified tuple from the page.
+	 *
+	 * @throws DbException if the tuple is not on this page, or its slot is
+	 *         already empty
+	 */
+	public void deleteTuple(Tuple t) throws DbException;
+
+	/**
+	 * @return the amount of free space left on this page
+	 */
+	public int getFreeSpace();
+
+	/**
+	 * @return the stream of all tuples on this page
+	 */
+	public Stream<Tuple> stream();
+
+	/**
+	 * @return an iterator over all tuples on this page
+	 */
+	public default Iterator<Tuple> iterator() {
+		return this.stream().iterator();
+	}
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy implements the 2Q algorithm of Johnson and Shasha, a
+ * constant time approximation of LRU-2. A page read for the first time goes
+ * into a FIFO queue (A1in); only a page requested again after it left A1in,
+ * which is remembered in a queue of page ids (A1out), is promoted to the main
+ * LRU queue (Am). A sequential scan therefore only cycles through A1in and
+ * does not push pages that are really reused out of Am.
+ * <p>
+ * A1in holds a quarter of the buffer pool and A1out remembers half as many
+ * pages as the buffer pool holds, the values suggested in the paper.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+	private int maxIn;
+	private int maxOut;
+
+	// insertion order, oldest first
+	private final LinkedHashSet<PageId> in = new LinkedHashSet<>();
+	private final LinkedHashSet<PageId> out = new LinkedHashSet<>();
+	// least recently used first
+	private final LinkedHashSet<PageId> main = new LinkedHashSet<>();
+
+	/**
+	 * @param capacity the number of pages of the buffer pool partition
+	 */
+	public TwoQueuePolicy(int capacity) {
+		this.resize(capacity);
+	}
+
+	public void resize(int capacity) {
+		this.maxIn = Math.max(capacity / 4, 1);
+		this.maxOut = Math.max(capacity / 2, 1);
+		for (Iterator<PageId> oldest = this.out.iterator(); this.out.size() > this.maxOut; ) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	public void pageAdded(PageId pid) {
+		if (this.in.contains(pid) || this.main.contains(pid))
+			this.pageAccessed(pid);
+		else if (this.out.remove(pid))
+			this.main.add(pid);
+		else
+			this.in.add(pid);
+	}
+
+	public void pageAccessed(PageId pid) {
+		// requests while the page is in A1in are taken as correlated and
+		// do not count
+		if (this.main.remove(pid))
+			this.main.add(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		if (!this.in.remove(pid))
+			this.main.remove(pid);
+	}
+
+	public PageId chooseVictim(Predicate<PageId> evictable) {
+		PageId victim = null;
+		if (this.in.size() > this.maxIn)
+			victim = this.takeFirst(this.in, evictable);
+		if (victim == null)
+			victim = this.takeFirst(this.main, evictable);
+		if (victim == null)
+			victim = this.takeFirst(this.in, evictable);
+		return victim;
+	}
+
+	/**
+	 * Remove and return the oldest page of a queue that can be evicted. Pages
+	 * leaving A1in are remembered in A1out.
+	 */
+	private PageId takeFirst(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+		for (Iterator<PageId> it = queue.iterator(); it.hasNext(); ) {
+			PageId pid = it.next();
+			if (!evictable.test(pid))
+				continue;
+
+			it.remove();
+			if (queue == this.in) {
+				this.out.add(pid);
+				if (this.out.size() > this.maxOut) {
+					Iterator<PageId> oldest = this.out.iterator();
+					oldest.next();
+					oldest.remove();
+				}
+			}
+			return pid;
+		}
+		return null;
+	}
+}
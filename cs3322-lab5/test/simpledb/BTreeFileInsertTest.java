@@ -172,6 +172,34 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().pageNumber() == 2 || otherPage.getId().pageNumber() == 2);
 	}
 
+	@Test
+	public void testExtentGrowth() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0, 3);
+		int numPages = empty.numPages();
+		empty.setExtentSize(4);
+
+		// the first new page extends the file by a whole extent, plus the
+		// header page recording the rest of it as free...
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		assertEquals(numPages + 1, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(numPages + 5, empty.numPages());
+		BTreePageId headerId = empty.getRootPtrPage(tid, dirtypages).getHeaderId();
+		assertEquals(numPages + 5, headerId.pageNumber());
+		BTreeHeaderPage header = (BTreeHeaderPage) empty.getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+		assertEquals(numPages + 2, header.getEmptySlot());
+
+		// ...and the rest of the extent is handed out without growing it again
+		for (int i = 2; i <= 4; i++)
+			assertEquals(numPages + i, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(numPages + 5, empty.numPages());
+
+		assertEquals(numPages + 6, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(numPages + 9, empty.numPages());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,121 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolMetricsTest extends SimpleDbTestBase {
+    private HeapFile heap;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createFile() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        heap = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, tuples);
+    }
+
+    private void read(BufferPool pool, TransactionId tid) throws Exception {
+        for (int i = 0; i < heap.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(heap.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Hits and misses are counted globally and per table, and every miss
+     * times a read.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        read(pool, tid);
+        read(pool, tid);
+        pool.transactionComplete(tid);
+
+        BufferPoolMetrics.Snapshot snapshot = pool.getMetrics().snapshot();
+        assertEquals(4, snapshot.getGlobal().getMisses());
+        assertEquals(4, snapshot.getGlobal().getHits());
+        assertEquals(0.5, snapshot.getGlobal().getHitRatio(), 1e-9);
+        assertEquals(4, snapshot.getTable(heap.getId()).getMisses());
+        assertEquals(4, snapshot.getReadLatency().getCount());
+        assertTrue(snapshot.getReadLatency().getP99Nanos() <= snapshot.getReadLatency().getMaxNanos());
+        assertEquals(8, snapshot.getLockWait().getCount());
+        assertEquals(Integer.valueOf(4), snapshot.getOccupancy().get("HeapPage"));
+
+        pool.getMetrics().reset();
+        assertEquals(0, pool.getMetrics().snapshot().getGlobal().getMisses());
+        assertEquals(0, pool.getMetrics().snapshot().getTable(heap.getId()).getHits());
+    }
+
+    /**
+     * Evictions and writes of dirty pages are counted too.
+     */
+    @Test public void evictionsAndWrites() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        read(pool, tid);
+        pool.transactionComplete(tid);
+        assertEquals(2, pool.getMetrics().getEvictions());
+
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage page = (HeapPage) pool.getPage(t.getId(), new HeapPageId(heap.getId(), 0),
+                Permissions.READ_WRITE);
+        pool.deleteTuple(t.getId(), page.iterator().next());
+        t.commit();
+        BufferPoolMetrics.Snapshot snapshot = pool.getMetrics().snapshot();
+        assertEquals(1, snapshot.getGlobal().getForegroundWrites());
+        assertEquals(1, snapshot.getTable(heap.getId()).getForegroundWrites());
+        assertEquals(1, snapshot.getWriteLatency().getCount());
+    }
+
+    /**
+     * The metrics of the buffer pool of the Database are published over JMX.
+     */
+    @Test public void publishedOverJmx() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(heap, tuples);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMetrics.OBJECT_NAME);
+        assertEquals(pool.getMissCount(), server.getAttribute(name, "Misses"));
+        CompositeData latency = (CompositeData) server.getAttribute(name, "ReadLatency");
+        assertEquals(pool.getMetrics().getReadLatency().getCount(), latency.get("count"));
+        assertNotNull(server.getAttribute(name, "Tables"));
+        assertNotNull(server.getAttribute(name, "Occupancy"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0, pool.getMissCount());
+    }
+
+    /**
+     * Percentiles are bounded by the end of their bucket.
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            h.record(100);
+        h.record(10000);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(100, s.getCount());
+        assertEquals(127, s.getP50Nanos());
+        assertEquals(127, s.getP99Nanos());
+        assertEquals(10000, s.percentile(1));
+        assertEquals((99 * 100 + 10000) / 100, s.getMeanNanos());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolMetricsTest.class);
+    }
+}
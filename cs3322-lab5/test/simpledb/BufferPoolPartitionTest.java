@@ -0,0 +1,136 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    /** A heap file whose reads block until they are let through. */
+    private static class SlowHeapFile extends HeapFile {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            this.reads.incrementAndGet();
+            this.reading.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile slow;
+    private HeapFile fast;
+    private ExecutorService threads;
+
+    @Before public void createFiles() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000, null, null);
+        slow = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        fast = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After public void stopThreads() {
+        slow.release.countDown();
+        threads.shutdownNow();
+    }
+
+    /**
+     * A page of another table can be read, and a cached page found, while a
+     * read is in progress, even if the pages belong to the same partition.
+     */
+    @Test public void missDoesNotBlockOtherPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, ClockPolicy::new, 1);
+        TransactionId tid = new TransactionId();
+        PageId cached = new HeapPageId(fast.getId(), 0);
+        pool.getPage(tid, cached, Permissions.READ_ONLY);
+
+        Future<Page> slowRead = threads.submit(() ->
+                pool.getPage(new TransactionId(), new HeapPageId(slow.getId(), 0), Permissions.READ_ONLY));
+        assertTrue(slow.reading.await(10, TimeUnit.SECONDS));
+
+        Future<Page> fastRead = threads.submit(() -> {
+            pool.getPage(tid, cached, Permissions.READ_ONLY);
+            return pool.getPage(tid, new HeapPageId(fast.getId(), 1), Permissions.READ_ONLY);
+        });
+        assertNotNull(fastRead.get(10, TimeUnit.SECONDS));
+        assertFalse(slowRead.isDone());
+
+        slow.release.countDown();
+        assertNotNull(slowRead.get(10, TimeUnit.SECONDS));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Concurrent misses on the same page wait for a single read of the page.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(slow.getId(), 0);
+
+        Future<Page> first = threads.submit(() ->
+                pool.getPage(new TransactionId(), pid, Permissions.READ_ONLY));
+        assertTrue(slow.reading.await(10, TimeUnit.SECONDS));
+        Future<Page> second = threads.submit(() ->
+                pool.getPage(new TransactionId(), pid, Permissions.READ_ONLY));
+        assertFalse(pool.prefetchPage(pid));
+
+        slow.release.countDown();
+        assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, slow.reads.get());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    /**
+     * Partitions share the pages of the buffer pool: a full partition takes a
+     * page of another one rather than going over the size of the pool.
+     */
+    @Test public void partitionsShareFrames() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4, ClockPolicy::new, 4);
+        assertEquals(4, pool.getNumPartitions());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < fast.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(fast.getId(), i), Permissions.READ_ONLY);
+        assertEquals(fast.numPages(), pool.getMissCount());
+
+        // only the last 4 pages can still be cached
+        long misses = pool.getMissCount();
+        pool.getPage(tid, new HeapPageId(fast.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(misses + 1, pool.getMissCount());
+        pool.transactionComplete(tid);
+
+        assertEquals(1, new BufferPool(BufferPool.MIN_PARTITION_PAGES).getNumPartitions());
+        assertEquals(BufferPool.MAX_PARTITIONS, new BufferPool(100000).getNumPartitions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
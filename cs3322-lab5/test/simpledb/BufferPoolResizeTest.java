@@ -0,0 +1,99 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+    private HeapFile heap;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        heap = SystemTestUtil.createFullHeapFile(6);
+        tid = new TransactionId();
+    }
+
+    private void read(BufferPool pool, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            pool.getPage(tid, pageId(heap, i), Permissions.READ_ONLY);
+    }
+
+    private int cached(BufferPool pool) {
+        return pool.getMetrics().getOccupancy().values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * A grown buffer pool caches more pages right away.
+     */
+    @Test public void grow() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2);
+        read(pool, 0, 6);
+        pool.resize(6);
+        assertEquals(6, pool.getNumPages());
+        read(pool, 0, 6);
+        long misses = pool.getMissCount();
+        long evictions = pool.getMetrics().getEvictions();
+        read(pool, 0, 6);
+        assertEquals(misses, pool.getMissCount());
+        assertEquals(evictions, pool.getMetrics().getEvictions());
+        assertEquals(6, cached(pool));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A shrunk buffer pool evicts pages down to its new size.
+     */
+    @Test public void shrink() throws Exception {
+        BufferPool pool = Database.resetBufferPool(6, TwoQueuePolicy::new);
+        read(pool, 0, 6);
+        pool.resize(2);
+        assertEquals(2, cached(pool));
+        read(pool, 0, 6);
+        assertEquals(2, cached(pool));
+        pool.transactionComplete(tid);
+
+        try {
+            pool.resize(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Pinned and dirty pages of running transactions survive shrinking, and
+     * are evicted by later misses once they can be.
+     */
+    @Test public void shrinkKeepsPinnedAndDirtyPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(6);
+        read(pool, 0, 6);
+        Page pinned = pool.pinPage(tid, pageId(heap, 0), Permissions.READ_ONLY);
+        HeapPage dirty = (HeapPage) pool.getPage(tid, pageId(heap, 1), Permissions.READ_WRITE);
+        pool.deleteTuple(tid, dirty.iterator().next());
+
+        pool.resize(1);
+        assertEquals(2, cached(pool));
+        long misses = pool.getMissCount();
+        assertSame(pinned, pool.getPage(tid, pageId(heap, 0), Permissions.READ_ONLY));
+        assertSame(dirty, pool.getPage(tid, pageId(heap, 1), Permissions.READ_ONLY));
+        assertEquals(misses, pool.getMissCount());
+
+        pool.unpinPage(tid, pageId(heap, 0));
+        pool.transactionComplete(tid);
+        pool.getPage(new TransactionId(), pageId(heap, 2), Permissions.READ_ONLY);
+        assertEquals(1, cached(pool));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -116,6 +116,26 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
         }
     }
     
+    /**
+     * The before image of a page modified through the buffer pool is its
+     * content before the transaction, until the transaction commits.
+     */
+    @Test public void beforeImage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        HeapPage p = (HeapPage) bp.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertEquals(504, p.getBeforeImage().getNumEmptySlots());
+
+        bp.transactionComplete(tid);
+        assertEquals(503, p.getBeforeImage().getNumEmptySlots());
+
+        tid = new TransactionId();
+        bp.deleteTuple(tid, t);
+        assertEquals(503, p.getBeforeImage().getNumEmptySlots());
+        assertEquals(504, p.getNumEmptySlots());
+    }
+
     @Test public void handleManyDirtyPages() throws Exception {
     	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
     	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
@@ -0,0 +1,93 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 32;
+
+    private HeapFile small;
+    private HeapFile large;
+
+    @Before public void createFiles() throws Exception {
+        small = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        large = SystemTestUtil.createRandomHeapFile(2, 50000, null, null);
+        assertEquals(2, small.numPages());
+        assertTrue(large.numPages() > 3 * POOL_PAGES);
+    }
+
+    private static void scan(DbFileIterator it) throws Exception {
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    /**
+     * @return the number of pages of the small file found in the buffer pool
+     */
+    private int cachedSmallPages(BufferPool pool, TransactionId tid) throws Exception {
+        long hits = pool.getHitCount();
+        for (int i = 0; i < small.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        return (int) (pool.getHitCount() - hits);
+    }
+
+    /**
+     * Scanning a table much larger than the buffer pool keeps the pages of
+     * the small table cached, while a scan without a ring evicts them.
+     */
+    @Test public void scanKeepsHotPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        assertEquals(0, cachedSmallPages(pool, tid));
+        assertEquals(2, cachedSmallPages(pool, tid));
+
+        // HeapFile picks a ring for a large table by itself
+        assertNotNull(BufferRing.forScan(large.numPages()));
+        assertNull(BufferRing.forScan(small.numPages()));
+        scan(large.iterator(tid));
+        assertEquals(2, cachedSmallPages(pool, tid));
+        scan(large.iterator(tid, new BufferRing(4)));
+        assertEquals(2, cachedSmallPages(pool, tid));
+
+        // a ring the size of the pool is no ring at all
+        scan(large.iterator(tid, new BufferRing(POOL_PAGES)));
+        assertEquals(0, cachedSmallPages(pool, tid));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A full ring recycles its own pages, so the scan only ever adds as many
+     * pages to the buffer pool as the ring holds.
+     */
+    @Test public void ringRecyclesItsPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        BufferRing ring = new BufferRing(3);
+        for (int i = 0; i < 10; i++)
+            pool.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY, ring);
+
+        // pages 7 to 9 are cached; page 0 was replaced
+        long misses = pool.getMissCount();
+        for (int i = 7; i < 10; i++)
+            pool.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+        assertEquals(misses, pool.getMissCount());
+        pool.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(misses + 1, pool.getMissCount());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileChannelManagerTest extends SimpleDbTestBase {
+    private FileChannelManager manager;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new FileChannelManager();
+        file = File.createTempFile("channel", "dat");
+        file.deleteOnExit();
+    }
+
+    /**
+     * Positional writes and reads go through one channel, opened once.
+     */
+    @Test
+    public void readWrite() throws Exception {
+        FileChannelManager.Handle handle = manager.open(file);
+        assertEquals(0, manager.getOpens());
+
+        handle.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), 4);
+        assertEquals(8, handle.size());
+
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        assertEquals(4, handle.read(buf, 4));
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, buf.array());
+
+        // reading past the end of the file stops early
+        buf.clear();
+        assertEquals(2, handle.read(buf, 6));
+        buf.clear();
+        assertEquals(0, handle.read(buf, 8));
+
+        assertEquals(1, manager.getOpens());
+        assertEquals(3, manager.getReads());
+        assertEquals(1, manager.getWrites());
+        assertEquals(6, manager.getBytesRead());
+        assertEquals(4, manager.getBytesWritten());
+        assertEquals(1, manager.getOpenHandles());
+    }
+
+    /**
+     * A closed handle is reopened on the next access.
+     */
+    @Test
+    public void reopen() throws Exception {
+        FileChannelManager.Handle handle = manager.open(file);
+        handle.write(ByteBuffer.wrap(new byte[] {42}), 0);
+        handle.close();
+        assertEquals(0, manager.getOpenHandles());
+
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        assertEquals(1, handle.read(buf, 0));
+        assertEquals(42, buf.get(0));
+        assertEquals(2, manager.getOpens());
+    }
+
+    /**
+     * Scanning a HeapFile does not open the file once per page.
+     */
+    @Test
+    public void heapFileKeepsHandleOpen() throws Exception {
+        FileChannelManager channels = Database.getFileChannelManager();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        long opens = channels.getOpens();
+        long reads = channels.getReads();
+
+        for (int i = 0; i < hf.numPages(); i++)
+            hf.readPage(new HeapPageId(hf.getId(), i));
+
+        assertTrue(channels.getOpens() - opens <= 1);
+        assertEquals(hf.numPages(), channels.getReads() - reads);
+    }
+
+    /**
+     * The channel of a table is closed when the table is replaced in the
+     * catalog or the catalog is cleared, and every channel when the database
+     * is reset.
+     */
+    @Test
+    public void catalogClosesHandles() throws Exception {
+        FileChannelManager channels = Database.getFileChannelManager();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+        int open = channels.getOpenHandles();
+
+        // the same file under a new HeapFile replaces the table
+        HeapFile again = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        again.readPage(new HeapPageId(again.getId(), 0));
+        assertEquals(open + 1, channels.getOpenHandles());
+        Database.getCatalog().addTable(again, SystemTestUtil.getUUID());
+        assertEquals(open, channels.getOpenHandles());
+
+        Database.getCatalog().clear();
+        assertEquals(0, channels.getOpenHandles());
+
+        Database.getCatalog().addTable(again, SystemTestUtil.getUUID());
+        again.readPage(new HeapPageId(again.getId(), 0));
+        assertEquals(1, channels.getOpenHandles());
+        Database.reset();
+        assertEquals(0, channels.getOpenHandles());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileChannelManagerTest.class);
+    }
+}
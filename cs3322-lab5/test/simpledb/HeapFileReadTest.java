@@ -121,6 +121,70 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Memory mapped HeapFiles read the same pages as regular ones, including
+     * pages appended after the file was first mapped.
+     */
+    @Test
+    public void memoryMappedRead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        HeapFile mapped = new HeapFile(plain.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        assertTrue(mapped.isMemoryMapped());
+
+        for (int i = 0; i < plain.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(),
+                    mapped.readPage(pid).getPageData());
+        }
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        // fill the last page and append another one through the mapped file
+        int pages = mapped.numPages();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(mapped.numPages() > pages);
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
+    /**
+     * A sequential scan prefetches the pages after the one it is reading,
+     * without locking them.
+     */
+    @Test
+    public void readAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        assertEquals(20, bigFile.numPages());
+        FileChannelManager channels = Database.getFileChannelManager();
+
+        // prefetching by hand does not lock the page
+        HeapPageId pid = new HeapPageId(bigFile.getId(), 19);
+        assertTrue(Database.getBufferPool().prefetchPage(pid));
+        assertFalse(Database.getBufferPool().prefetchPage(pid));
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+
+        long reads = channels.getReads();
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        // the first page is read by the scan, the next few in the background
+        ReadAhead.awaitPrefetches();
+        assertTrue(channels.getReads() - reads >= 5);
+        it.close();
+
+        SystemTestUtil.matchTuples(bigFile, tid, tuples);
+    }
+
     /**
      * JUnit suite target
      */
@@ -43,6 +43,53 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * An insert locks only the page it goes to, not the full pages before it.
+     */
+    @Test public void insertLocksOnlyTargetPage() throws Exception {
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+
+        TransactionId tid2 = new TransactionId();
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid2, t);
+
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+        assertFalse(bp.holdsLock(tid2, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(tid2, new HeapPageId(empty.getId(), 1)));
+        assertTrue(bp.holdsLock(tid2, new HeapPageId(empty.getId(), 2)));
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * With a larger extent size the file grows several pages at a time, and
+     * the preallocated pages are filled before it grows again.
+     */
+    @Test public void extentGrowth() throws Exception {
+        empty.setExtentSize(4);
+
+        // fill the one page the file starts with
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(1, empty.numPages());
+
+        Tuple t = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(5, empty.numPages());
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+
+        for (int i = 1; i < 504 * 4; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(5, empty.numPages());
+
+        empty.insertTuple(tid, t = Utility.getHeapTuple(0, 2));
+        assertEquals(9, empty.numPages());
+        assertEquals(5, t.getRecordId().getPageId().pageNumber());
+    }
+
     /**
      * JUnit suite target
      */
@@ -10,9 +10,11 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +122,30 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField(): single fields are decoded on their
+     * own and agree with the decoded tuples, and an untouched page
+     * serializes back to the bytes it was read from.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < 20; ++i)
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 20; ++i)
+            assertEquals(it.next().getField(0), page.getField(i, 0));
+
+        try {
+            page.getField(20, 0);
+            fail("expected NoSuchElementException for an empty slot");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
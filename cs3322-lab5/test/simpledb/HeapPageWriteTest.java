@@ -1,9 +1,11 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,49 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.writePageData(): serializing into a reused
+     * scratch buffer produces the same bytes as getPageData(), including the
+     * zeroed empty slots and padding.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        page.deleteTuple(page.iterator().next());
+
+        // dirty the scratch buffer first
+        ByteBuffer scratch = PageCodec.encode(new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA));
+        scratch.clear();
+        while (scratch.hasRemaining())
+            scratch.put((byte) 0x5a);
+
+        ByteBuffer buf = PageCodec.encode(page);
+        assertEquals(BufferPool.getPageSize(), buf.remaining());
+        byte[] encoded = new byte[buf.remaining()];
+        buf.get(encoded);
+        assertArrayEquals(page.getPageData(), encoded);
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the image is only copied when
+     * the page is about to be modified, and setBeforeImage() makes the current
+     * content the before image again.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.captureBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        page.captureBeforeImage(); // keeps the first image
+        page.insertTuple(Utility.getHeapTuple(43, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,302 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private static final LockManager.Mode S = LockManager.Mode.SHARED;
+    private static final LockManager.Mode X = LockManager.Mode.EXCLUSIVE;
+
+    private LockManager locks;
+    private PageId p0, p1;
+    private TransactionId t1, t2, t3;
+
+    @Before public void setUp() {
+        locks = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /**
+     * Request a lock in another thread.
+     */
+    private CompletableFuture<Void> acquire(TransactionId tid, PageId pid, LockManager.Mode mode) {
+        return CompletableFuture.runAsync(() -> locks.acquire(tid, pid, mode));
+    }
+
+    private static boolean waits(CompletableFuture<Void> request) throws Exception {
+        try {
+            request.get(200, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * A reader arriving after a waiting writer queues behind it, even though
+     * the lock is only held in shared mode.
+     */
+    @Test public void writerNotStarved() throws Exception {
+        locks.acquire(t1, p0, S);
+        CompletableFuture<Void> writer = acquire(t2, p0, X);
+        assertTrue(waits(writer));
+        CompletableFuture<Void> reader = acquire(t3, p0, S);
+        assertTrue(waits(reader));
+
+        locks.releaseAll(t1);
+        writer.get(1, TimeUnit.SECONDS);
+        assertTrue(waits(reader));
+        locks.releaseAll(t2);
+        reader.get(1, TimeUnit.SECONDS);
+        assertEquals(S, locks.getMode(t3, p0));
+    }
+
+    /**
+     * An upgrade goes before the requests already waiting.
+     */
+    @Test public void upgrade() throws Exception {
+        locks.acquire(t1, p0, S);
+        locks.acquire(t2, p0, S);
+        CompletableFuture<Void> writer = acquire(t3, p0, X);
+        assertTrue(waits(writer));
+        CompletableFuture<Void> upgrade = acquire(t1, p0, X);
+        assertTrue(waits(upgrade));
+
+        locks.release(t2, p0);
+        upgrade.get(1, TimeUnit.SECONDS);
+        assertEquals(X, locks.getMode(t1, p0));
+        assertTrue(waits(writer));
+
+        // an exclusive lock covers a shared request
+        locks.acquire(t1, p0, S);
+        assertEquals(X, locks.getMode(t1, p0));
+        locks.releaseAll(t1);
+        writer.get(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Two transactions waiting for each other: one of them aborts, and the
+     * other one gets its lock once the locks of the first are released.
+     */
+    @Test public void deadlock() throws Exception {
+        locks.acquire(t1, p0, X);
+        locks.acquire(t2, p1, X);
+        CountDownLatch aborted = new CountDownLatch(1);
+        CompletableFuture<Void> r1 = acquire(t1, p1, X).whenComplete((v, e) -> {
+            if (e != null) { locks.releaseAll(t1); aborted.countDown(); }
+        });
+        CompletableFuture<Void> r2 = acquire(t2, p0, X).whenComplete((v, e) -> {
+            if (e != null) { locks.releaseAll(t2); aborted.countDown(); }
+        });
+        assertTrue(aborted.await(1, TimeUnit.SECONDS));
+        assertTrue(r1.handle((v, e) -> e == null).get(1, TimeUnit.SECONDS)
+                || r2.handle((v, e) -> e == null).get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * The victim of a deadlock is chosen by the victim policy; the other
+     * transaction keeps waiting until the victim releases its locks.
+     */
+    @Test public void victimPolicy() throws Exception {
+        locks.setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+        locks.acquire(t1, p0, X);
+        for (int i = 1; i < 4; i++)
+            locks.acquire(t2, new HeapPageId(1, i), X);
+        CompletableFuture<Void> r1 = acquire(t1, p1, X);
+        CompletableFuture<Void> r2 = acquire(t2, p0, S);
+
+        // the older transaction holds fewer locks, so it is the victim
+        try {
+            r1.get(1, TimeUnit.SECONDS);
+            fail("expected the transaction holding fewer locks to abort");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        assertTrue(waits(r2));
+        assertEquals(1, locks.getDeadlockCount());
+        locks.releaseAll(t1);
+        r2.get(1, TimeUnit.SECONDS);
+    }
+
+    private static void assertAborts(CompletableFuture<Void> request) throws Exception {
+        try {
+            request.get(1, TimeUnit.SECONDS);
+            fail("expected the transaction to abort");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+    }
+
+    /**
+     * Wait-die: an older transaction waits for a younger one, a younger one
+     * aborts at once instead of waiting for an older one.
+     */
+    @Test public void waitDie() throws Exception {
+        locks.setStrategy(LockManager.Strategy.WAIT_DIE);
+        locks.acquire(t2, p0, X);
+        CompletableFuture<Void> older = acquire(t1, p0, S);
+        assertTrue(waits(older));
+        assertAborts(acquire(t3, p0, S));
+
+        locks.releaseAll(t2);
+        older.get(1, TimeUnit.SECONDS);
+        assertEquals(1, locks.getDeadlockCount());
+    }
+
+    /**
+     * Wound-wait: an older transaction wounds the younger one it would wait
+     * for, which aborts as soon as it waits, while a younger one waits.
+     */
+    @Test public void woundWait() throws Exception {
+        locks.setStrategy(LockManager.Strategy.WOUND_WAIT);
+        locks.acquire(t1, p1, X);
+        locks.acquire(t2, p0, X);
+        CompletableFuture<Void> younger = acquire(t3, p0, S);
+        assertTrue(waits(younger));
+
+        // t1 wounds t2 and t3, which waits behind t2; t2 aborts once it
+        // waits for t1
+        CompletableFuture<Void> older = acquire(t1, p0, S);
+        assertAborts(younger);
+        assertTrue(waits(older));
+        assertAborts(acquire(t2, p1, S));
+        locks.releaseAll(t2);
+        older.get(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Locks only exist while they are held or requested, and a transaction
+     * releases its locks without touching the others.
+     */
+    @Test public void reclaimed() throws Exception {
+        for (int i = 0; i < 100; i++)
+            locks.acquire(t1, new HeapPageId(1, i), i % 2 == 0 ? S : X);
+        locks.acquire(t2, p0, S);
+        // and the intention lock on the table
+        assertEquals(101, locks.getNumLocks());
+        assertEquals(101, locks.getLocks(t1).size());
+
+        locks.releaseAll(t1);
+        assertEquals(2, locks.getNumLocks());
+        assertTrue(locks.getLocks(t1).isEmpty());
+        assertTrue(locks.isLocked(p0));
+        assertFalse(locks.isLocked(p1));
+        locks.release(t2, p0);
+        assertEquals(1, locks.getNumLocks());
+        locks.releaseAll(t2);
+        assertEquals(0, locks.getNumLocks());
+    }
+
+    /**
+     * A table lock covers the pages of the table, and conflicts with the
+     * intention locks of the transactions locking pages of the table.
+     */
+    @Test public void tableLocks() throws Exception {
+        locks.acquireTable(t1, 1, S);
+        assertEquals(S, locks.getMode(t1, p0));
+        assertTrue(locks.isLocked(p1));
+        locks.acquire(t1, p0, S);
+        assertEquals(1, locks.getNumLocks());
+
+        // readers of other pages go on, writers wait
+        locks.acquire(t2, p1, S);
+        CompletableFuture<Void> writer = acquire(t3, p0, X);
+        assertTrue(waits(writer));
+
+        // reading the table and writing one of its pages
+        PageId p2 = new HeapPageId(1, 2);
+        locks.acquire(t1, p2, X);
+        assertEquals(LockManager.Mode.SHARED_INTENTION_EXCLUSIVE, locks.getTableMode(t1, 1));
+        assertEquals(X, locks.getMode(t1, p2));
+        locks.releaseAll(t2);
+        locks.releaseAll(t1);
+        writer.get(1, TimeUnit.SECONDS);
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, locks.getTableMode(t3, 1));
+    }
+
+    /**
+     * Past the threshold, page locks are traded for a table lock.
+     */
+    @Test public void escalation() throws Exception {
+        locks.setEscalationThreshold(10);
+        for (int i = 0; i < 11; i++)
+            locks.acquire(t1, new HeapPageId(1, i), S);
+        assertEquals(S, locks.getTableMode(t1, 1));
+        assertEquals(1, locks.getLocks(t1).size());
+        assertEquals(S, locks.getMode(t1, new HeapPageId(1, 100)));
+
+        for (int i = 0; i < 11; i++)
+            locks.acquire(t2, new HeapPageId(2, i), i == 0 ? X : S);
+        assertEquals(X, locks.getTableMode(t2, 2));
+        assertEquals(1, locks.getLocks(t2).size());
+    }
+
+    /**
+     * A scan of a heap file takes one lock on the table, whatever its size.
+     */
+    @Test public void scanLocksTable() throws Exception {
+        HeapFile heap = SystemTestUtil.createFullHeapFile(4);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = heap.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+
+        assertEquals(S, pool.getLockManager().getTableMode(tid, heap.getId()));
+        assertEquals(1, pool.getLockManager().getLocks(tid).size());
+        assertTrue(pool.holdsLock(tid, new HeapPageId(heap.getId(), 3)));
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getLockManager().getNumLocks());
+    }
+
+    /**
+     * Transactions locking different records of a page hold the page
+     * together, in an intention mode; a lock on the whole page waits for
+     * them, and covers the records of the page once granted.
+     */
+    @Test public void recordLocks() throws Exception {
+        RecordId r0 = new RecordId(p0, 0);
+        RecordId r1 = new RecordId(p0, 1);
+        locks.acquireRecord(t1, r0, X);
+        locks.acquireRecord(t2, r1, X);
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, locks.getMode(t1, p0));
+        assertEquals(X, locks.getMode(t2, r1));
+        assertNull(locks.getMode(t2, r0));
+
+        CompletableFuture<Void> reader = acquire(t3, p0, S);
+        assertTrue(waits(reader));
+        locks.releaseAll(t1);
+        assertTrue(waits(reader));
+        locks.releaseAll(t2);
+        reader.get(1, TimeUnit.SECONDS);
+
+        locks.acquireRecord(t3, r1, S);
+        assertEquals(S, locks.getMode(t3, r1));
+        assertEquals(2, locks.getLocks(t3).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 4;
+    private static final int ARENA_PAGES = 64;
+
+    /**
+     * The arena gives back the bytes of the pages put in it, and replaces
+     * its pages once it is full.
+     */
+    @Test public void putAndTake() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        assertTrue(f.numPages() >= 3);
+        PageArena arena = new PageArena(2);
+        assertEquals(2, arena.getCapacity());
+
+        Page first = f.readPage(new HeapPageId(f.getId(), 0));
+        arena.put(first);
+        assertArrayEquals(first.getPageData(), arena.take(first.getId()));
+        assertNull(arena.take(first.getId()));
+
+        for (int i = 0; i < 3; i++)
+            arena.put(f.readPage(new HeapPageId(f.getId(), i)));
+        assertEquals(2, arena.size());
+        arena.remove(new HeapPageId(f.getId(), 2));
+        assertEquals(1, arena.size());
+    }
+
+    /**
+     * Pages evicted from a small buffer pool are decoded from the arena
+     * rather than read again from disk, for heap files and B+ trees alike.
+     */
+    @Test public void evictedPagesStayInArena() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        BufferPool pool = Database.resetBufferPool(
+                new BufferPool(POOL_PAGES, ClockPolicy::new, 1, ARENA_PAGES));
+        assertEquals(ARENA_PAGES, pool.getNumArenaPages());
+
+        SystemTestUtil.matchTuples(heap, tuples);
+        long misses = pool.getMissCount();
+        assertTrue(misses > 0);
+        SystemTestUtil.matchTuples(heap, tuples);
+        assertEquals(misses, pool.getMissCount());
+
+        ArrayList<ArrayList<Integer>> entries = new ArrayList<ArrayList<Integer>>();
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 2000, null, entries, 0);
+        SystemTestUtil.matchTuples(btree, entries);
+        misses = pool.getMissCount();
+        SystemTestUtil.matchTuples(btree, entries);
+        assertEquals(misses, pool.getMissCount());
+    }
+
+    /**
+     * A discarded page is dropped from the arena too, since it may have
+     * changed on disk.
+     */
+    @Test public void discardDropsArenaCopy() throws Exception {
+        HeapFile heap = SystemTestUtil.createFullHeapFile(10);
+        BufferPool pool = Database.resetBufferPool(
+                new BufferPool(POOL_PAGES, ClockPolicy::new, 1, ARENA_PAGES));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < heap.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(heap.getId(), i), Permissions.READ_ONLY);
+
+        // page 0 was evicted into the arena
+        long misses = pool.getMissCount();
+        pool.discardPage(new HeapPageId(heap.getId(), 1));
+        pool.getPage(tid, new HeapPageId(heap.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(misses, pool.getMissCount());
+        pool.getPage(tid, new HeapPageId(heap.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(misses + 1, pool.getMissCount());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
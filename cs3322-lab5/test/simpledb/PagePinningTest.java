@@ -0,0 +1,115 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+public class PagePinningTest extends SimpleDbTestBase {
+    private HeapFile heap;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        heap = SystemTestUtil.createFullHeapFile(6);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A pinned page is not evicted, and is evicted again once unpinned as
+     * many times as it was pinned.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2);
+        Page page = pool.pinPage(tid, pageId(heap, 0), Permissions.READ_ONLY);
+        assertSame(page, pool.pinPage(tid, pageId(heap, 0), Permissions.READ_ONLY));
+        assertTrue(pool.isPinned(pageId(heap, 0)));
+
+        for (int i = 1; i < heap.numPages(); i++)
+            pool.getPage(tid, pageId(heap, i), Permissions.READ_ONLY);
+        long misses = pool.getMissCount();
+        assertSame(page, pool.getPage(tid, pageId(heap, 0), Permissions.READ_ONLY));
+        assertEquals(misses, pool.getMissCount());
+
+        pool.unpinPage(tid, pageId(heap, 0));
+        assertTrue(pool.isPinned(pageId(heap, 0)));
+        pool.unpinPage(tid, pageId(heap, 0));
+        assertFalse(pool.isPinned(pageId(heap, 0)));
+        for (int i = 1; i < heap.numPages(); i++)
+            pool.getPage(tid, pageId(heap, i), Permissions.READ_ONLY);
+        pool.getPage(tid, pageId(heap, 0), Permissions.READ_ONLY);
+        assertEquals(misses + heap.numPages(), pool.getMissCount());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * No page can be read if every page of the buffer pool is pinned, and
+     * completing the transaction drops its pins.
+     */
+    @Test public void allPagesPinned() throws Exception {
+        BufferPool pool = Database.resetBufferPool(2);
+        pool.pinPage(tid, pageId(heap, 0), Permissions.READ_ONLY);
+        pool.pinPage(tid, pageId(heap, 1), Permissions.READ_ONLY);
+        try {
+            pool.getPage(tid, pageId(heap, 2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+
+        pool.transactionComplete(tid);
+        assertFalse(pool.isPinned(pageId(heap, 0)));
+        assertFalse(pool.isPinned(pageId(heap, 1)));
+        pool.getPage(new TransactionId(), pageId(heap, 2), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Iterators pin the page they are walking, and only that page.
+     */
+    @Test public void iteratorsPinCurrentPage() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = heap.iterator(tid);
+        it.open();
+        it.next();
+        assertTrue(pool.isPinned(pageId(heap, 0)));
+        for (int i = 0; i < 504; i++)
+            it.next();
+        assertFalse(pool.isPinned(pageId(heap, 0)));
+        assertTrue(pool.isPinned(pageId(heap, 1)));
+        it.close();
+        assertFalse(pool.isPinned(pageId(heap, 1)));
+        pool.transactionComplete(tid);
+
+        // creating the B+ tree resets the buffer pool
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        pool = Database.getBufferPool();
+        DbFileIterator bit = btree.iterator(tid);
+        bit.open();
+        assertTrue(bit.hasNext());
+        PageId leaf = bit.next().getRecordId().getPageId();
+        assertTrue(pool.isPinned(leaf));
+        while (bit.hasNext())
+            bit.next();
+        assertFalse(pool.isPinned(leaf));
+        bit.close();
+
+        bit = btree.indexIterator(tid, new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)));
+        bit.open();
+        leaf = bit.next().getRecordId().getPageId();
+        assertTrue(pool.isPinned(leaf));
+        bit.close();
+        assertFalse(pool.isPinned(leaf));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePinningTest.class);
+    }
+}
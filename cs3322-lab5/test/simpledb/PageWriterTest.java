@@ -0,0 +1,142 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageWriterTest extends SimpleDbTestBase {
+    /** A heap file whose background writes block until they are let through. */
+    private static class GatedHeapFile extends HeapFile {
+        volatile CountDownLatch release = new CountDownLatch(0);
+
+        GatedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (Thread.currentThread().getName().equals("simpledb-pagewriter")) {
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            super.writePage(page);
+        }
+    }
+
+    private GatedHeapFile heap;
+    private BufferPool pool;
+
+    @Before public void createFile() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 3, 1000, null, null);
+        heap = new GatedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After public void stopWriter() throws Exception {
+        heap.release.countDown();
+        pool.stopBackgroundWriter();
+    }
+
+    /** Delete the first tuple of the specified page, and commit or abort. */
+    private void deleteFirst(int page, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        HeapPage p = (HeapPage) pool.getPage(t.getId(), pageId(heap, page), Permissions.READ_WRITE);
+        pool.deleteTuple(t.getId(), p.iterator().next());
+        t.transactionComplete(!commit);
+    }
+
+    private int countOnDisk(int page) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) heap.readPage(pageId(heap, page))).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Commit leaves the pages to the background writer, which writes them
+     * and marks them clean.
+     */
+    @Test public void commitDoesNotWritePages() throws Exception {
+        int before = countOnDisk(0);
+        pool.startBackgroundWriter();
+        deleteFirst(0, true);
+        assertEquals(0, pool.getForegroundWriteCount());
+
+        pool.awaitBackgroundWriter();
+        assertEquals(1, pool.getBackgroundWriteCount());
+        assertEquals(before - 1, countOnDisk(0));
+        assertNull(pool.getPage(new TransactionId(), pageId(heap, 0), Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * Aborting a transaction that modified a committed page the writer had
+     * not written yet writes the committed content of the page back.
+     */
+    @Test public void abortKeepsCommittedPage() throws Exception {
+        int before = countOnDisk(1);
+        heap.release = new CountDownLatch(1);
+        pool.startBackgroundWriter();
+        deleteFirst(1, true);
+        deleteFirst(1, false);
+        assertEquals(1, pool.getForegroundWriteCount());
+        assertEquals(before - 1, countOnDisk(1));
+
+        heap.release.countDown();
+        pool.stopBackgroundWriter();
+        assertEquals(before - 1, countOnDisk(1));
+    }
+
+    /**
+     * Stopping the writer writes the committed pages it left.
+     */
+    @Test public void stopWritesLeftPages() throws Exception {
+        int before = countOnDisk(2);
+        pool.startBackgroundWriter();
+        deleteFirst(2, true);
+        pool.stopBackgroundWriter();
+        assertEquals(before - 1, countOnDisk(2));
+        assertEquals(0, pool.getForegroundWriteCount());
+    }
+
+    /**
+     * A transaction the buffer pool commits directly, not through
+     * Transaction, gets a commit record, so recovery keeps its changes.
+     */
+    @Test public void directCommitIsLogged() throws Exception {
+        int before = countOnDisk(0);
+        pool.startBackgroundWriter();
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) pool.getPage(tid, pageId(heap, 0), Permissions.READ_WRITE);
+        pool.deleteTuple(tid, p.iterator().next());
+        pool.transactionComplete(tid);
+        assertEquals(0, Database.getLogFile().getBytesLogged(tid));
+
+        pool.awaitBackgroundWriter();
+        Database.getLogFile().recover();
+        assertEquals(before - 1, countOnDisk(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+            new String[] {"id", "name", "grp"});
+
+    private PaxHeapFile pax;
+    private HeapFile heap;
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new IntField(id % 7));
+        return t;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Before public void setUp() throws Exception {
+        pax = new PaxHeapFile(tempFile(), TD);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        heap = new HeapFile(tempFile(), TD);
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Tuples survive a round trip through the page format, with each field
+     * stored in its own minipage.
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        PaxPage page = new PaxPage(new HeapPageId(pax.getId(), 0), PaxPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals(HeapPage.getNumTuples(TD), slots);
+
+        for (int i = 0; i < 3; i++)
+            page.insertTuple(tuple(i));
+        page.deleteTuple(page.stream().skip(1).findFirst().get());
+
+        byte[] data = page.getPageData();
+        PaxPage copy = new PaxPage(page.getId(), data);
+        assertEquals(slots - 2, copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(1));
+        assertEquals(new IntField(2), copy.getField(2, 0));
+        assertEquals(new StringField("name2", Type.STRING_LEN), copy.getField(2, 1));
+
+        // the first int of slot 2 lies right after those of slots 0 and 1
+        int header = HeapPage.getHeaderSize(TD);
+        assertEquals(2, java.nio.ByteBuffer.wrap(data).getInt(header + 2 * 4));
+
+        // a tuple read from the page keeps its values when its slot is reused
+        Tuple old = copy.stream().skip(1).findFirst().get();
+        copy.deleteTuple(old);
+        copy.insertTuple(tuple(9));
+        copy.insertTuple(tuple(10));
+        assertEquals(new IntField(2), old.getField(0));
+        assertEquals(new StringField("name10", Type.STRING_LEN),
+                new PaxPage(copy.getId(), copy.getPageData()).getField(2, 1));
+        assertEquals(tuple(0), copy.stream().findFirst().get());
+    }
+
+    private static int sum(TransactionId tid, DbFile f, int group) throws Exception {
+        Aggregate agg = new Aggregate(new Filter(
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(group)),
+                new SeqScan(tid, f.getId())), 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        // no rows, no aggregate
+        int sum = agg.hasNext() ? ((IntField) agg.next().getField(0)).getValue() : 0;
+        agg.close();
+        return sum;
+    }
+
+    /**
+     * Insert, SeqScan, Filter, Aggregate and Delete give the same results on
+     * a PAX table as on a HeapFile.
+     */
+    @Test public void operators() throws Exception {
+        TransactionId tid;
+        for (DbFile f : new DbFile[] {pax, heap}) {
+            tid = new TransactionId();
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (int i = 0; i < 1000; i++)
+                tuples.add(tuple(i));
+            Insert insert = new Insert(tid, new TupleIterator(TD, tuples), f.getId());
+            insert.open();
+            assertEquals(1000, ((IntField) insert.next().getField(0)).getValue());
+            insert.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(heap.numPages(), pax.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        for (int g = 0; g < 7; g++)
+            assertEquals(sum(tid, heap, g), sum(tid, pax, g));
+        Delete delete = new Delete(tid, new Filter(
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(3)),
+                new SeqScan(tid, pax.getId())));
+        delete.open();
+        assertEquals(143, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(0, sum(tid, pax, 3));
+        assertEquals(sum(tid, heap, 4), sum(tid, pax, 4));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * "using pax" in the catalog file creates a PaxHeapFile.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("wide (id int, a int, b int) using pax\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog catalog = Database.getCatalog();
+        assertTrue(catalog.getDatabaseFile(catalog.getTableId("wide")) instanceof PaxHeapFile);
+        new File(schema.getParent(), "wide.dat").deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
@@ -0,0 +1,273 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecordLockingTest extends SimpleDbTestBase {
+    private static final int ROWS = 100;
+
+    private HeapFile heap;
+    private BufferPool pool;
+    private HeapPageId pid;
+    private TransactionId t1, t2;
+
+    @Before public void setUp() throws Exception {
+        heap = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        assertEquals(1, heap.numPages());
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setRecordLocking(true);
+        pid = new HeapPageId(heap.getId(), 0);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run an action in another thread.
+     */
+    private static CompletableFuture<Void> async(Action action) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static boolean waits(CompletableFuture<Void> request) throws Exception {
+        try {
+            request.get(200, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        }
+    }
+
+    private ArrayList<Tuple> tuples(HeapPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    private ArrayList<Tuple> onDisk() {
+        return tuples((HeapPage) heap.readPage(pid));
+    }
+
+    private Tuple row(int slot) throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = tuples((HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY)).get(slot);
+        pool.transactionComplete(tid);
+        return t;
+    }
+
+    /**
+     * Two transactions change different tuples of the same page at the same
+     * time; the page written at commit only holds the committed changes, and
+     * an abort undoes the changes of its transaction alone.
+     */
+    @Test public void writersShareAPage() throws Exception {
+        Tuple deleted = row(0);
+        pool.insertTuple(t1, heap.getId(), Utility.getHeapTuple(-1, 2));
+        async(() -> {
+            pool.insertTuple(t2, heap.getId(), Utility.getHeapTuple(-2, 2));
+            pool.deleteTuple(t2, deleted);
+        }).get(1, TimeUnit.SECONDS);
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, pool.getLockManager().getMode(t1, pid));
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, pool.getLockManager().getMode(t2, pid));
+
+        pool.transactionComplete(t1);
+        ArrayList<Tuple> disk = onDisk();
+        assertEquals(ROWS + 1, disk.size());
+        assertTrue(disk.contains(Utility.getHeapTuple(-1, 2)));
+        assertFalse(disk.contains(Utility.getHeapTuple(-2, 2)));
+        assertTrue(disk.contains(deleted));
+        assertEquals(t2, ((HeapPage) pool.getPage(t2, pid, Permissions.READ_ONLY)).isDirty());
+
+        pool.transactionComplete(t2, false);
+        assertEquals(disk, onDisk());
+        TransactionId t3 = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(t3, pid, Permissions.READ_ONLY);
+        assertEquals(disk, tuples(page));
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * A transaction deleting a tuple another one deleted waits for it, and
+     * deletes it once the other one aborted.
+     */
+    @Test public void sameRecordWaits() throws Exception {
+        Tuple t = row(3);
+        pool.deleteTuple(t1, t);
+        assertEquals(LockManager.Mode.EXCLUSIVE, pool.getLockManager().getMode(t1, t.getRecordId()));
+        CompletableFuture<Void> delete = async(() -> pool.deleteTuple(t2, t));
+        assertTrue(waits(delete));
+
+        pool.transactionComplete(t1, false);
+        delete.get(1, TimeUnit.SECONDS);
+        pool.transactionComplete(t2);
+        assertEquals(ROWS - 1, onDisk().size());
+        assertFalse(onDisk().contains(t));
+    }
+
+    /**
+     * The slot of a tuple deleted by a running transaction is not reused,
+     * so that the tuple can go back to it.
+     */
+    @Test public void deletedSlotKept() throws Exception {
+        Tuple t = row(0);
+        pool.deleteTuple(t1, t);
+        Tuple inserted = Utility.getHeapTuple(-1, 2);
+        pool.insertTuple(t2, heap.getId(), inserted);
+        assertEquals(pid, inserted.getRecordId().getPageId());
+        assertTrue(inserted.getRecordId().tupleno() != 0);
+
+        pool.transactionComplete(t2);
+        pool.transactionComplete(t1, false);
+        assertEquals(ROWS + 1, onDisk().size());
+        assertTrue(onDisk().contains(t));
+    }
+
+    /**
+     * A scan of the table waits for the transactions changing its tuples,
+     * and sees their changes once they commit.
+     */
+    @Test public void scanWaitsForWriters() throws Exception {
+        pool.insertTuple(t1, heap.getId(), Utility.getHeapTuple(-1, 2));
+        ArrayList<Tuple> seen = new ArrayList<>();
+        CompletableFuture<Void> scan = async(() -> {
+            DbFileIterator it = heap.iterator(t2);
+            it.open();
+            while (it.hasNext())
+                seen.add(it.next());
+            it.close();
+        });
+        assertTrue(waits(scan));
+
+        pool.transactionComplete(t1);
+        scan.get(1, TimeUnit.SECONDS);
+        assertEquals(ROWS + 1, seen.size());
+    }
+
+    /**
+     * Insert operators of different transactions insert into the same page
+     * at the same time.
+     */
+    @Test public void insertOperatorsShareAPage() throws Exception {
+        insert(t1, Utility.getHeapTuple(-1, 2));
+        async(() -> insert(t2, Utility.getHeapTuple(-2, 2))).get(1, TimeUnit.SECONDS);
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, pool.getLockManager().getMode(t1, pid));
+        assertEquals(LockManager.Mode.INTENTION_EXCLUSIVE, pool.getLockManager().getMode(t2, pid));
+
+        pool.transactionComplete(t1);
+        pool.transactionComplete(t2);
+        assertEquals(ROWS + 2, onDisk().size());
+    }
+
+    private void insert(TransactionId tid, Tuple t) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        tuples.add(t);
+        Insert insert = new Insert(tid, new TupleIterator(t.getTupleDesc(), tuples), heap.getId());
+        insert.open();
+        assertEquals(1, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+    }
+
+    /**
+     * An insert locks the slot it chooses before it changes the page, and
+     * skips a slot somebody else still locks instead of waiting for it.
+     */
+    @Test public void insertSkipsLockedSlot() throws Exception {
+        pool.getPageForRecords(t1, pid);
+        pool.lockRecord(t1, new RecordId(pid, ROWS), Permissions.READ_WRITE);
+        Tuple inserted = Utility.getHeapTuple(-1, 2);
+        async(() -> pool.insertTuple(t2, heap.getId(), inserted)).get(1, TimeUnit.SECONDS);
+        assertEquals(new RecordId(pid, ROWS + 1), inserted.getRecordId());
+        assertEquals(LockManager.Mode.EXCLUSIVE, pool.getLockManager().getMode(t2, inserted.getRecordId()));
+
+        pool.transactionComplete(t1);
+        pool.transactionComplete(t2);
+        assertEquals(ROWS + 1, onDisk().size());
+    }
+
+    /**
+     * A slot freed under record locks goes back to the free space map when
+     * its transaction commits, so a later insert uses it instead of growing
+     * the file.
+     */
+    @Test public void committedDeleteFreesSlot() throws Exception {
+        HeapFile full = SystemTestUtil.createFullHeapFile(2);
+        pool = Database.getBufferPool();
+        pool.setRecordLocking(true);
+        PageId first = SystemTestUtil.pageId(full, 0);
+        PageId second = SystemTestUtil.pageId(full, 1);
+
+        // one free slot on the second page, on disk
+        TransactionId t0 = new TransactionId();
+        pool.deleteTuple(t0, tuples((HeapPage) pool.getPage(t0, second, Permissions.READ_ONLY)).get(0));
+        pool.transactionComplete(t0);
+
+        // the insert takes it while the delete on the first page is running
+        pool.deleteTuple(t1, tuples((HeapPage) pool.getPage(t1, first, Permissions.READ_ONLY)).get(0));
+        Tuple inserted = Utility.getHeapTuple(-1, 2);
+        pool.insertTuple(t2, full.getId(), inserted);
+        assertEquals(second, inserted.getRecordId().getPageId());
+        pool.transactionComplete(t2);
+        pool.transactionComplete(t1);
+
+        TransactionId t3 = new TransactionId();
+        inserted = Utility.getHeapTuple(-2, 2);
+        pool.insertTuple(t3, full.getId(), inserted);
+        pool.transactionComplete(t3);
+        assertEquals(first, inserted.getRecordId().getPageId());
+        assertEquals(2, full.numPages());
+    }
+
+    /**
+     * B+ tree files keep locking whole pages while record locking is on: a
+     * second insert into the same leaf waits for the first transaction.
+     */
+    @Test public void bTreeFallsBackToPageLocks() throws Exception {
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 20, null, null, 0);
+        // writing the tree out resets the buffer pool
+        pool = Database.getBufferPool();
+        pool.setRecordLocking(true);
+        Tuple first = BTreeUtility.getBTreeTuple(new int[] { 1, 1 });
+        pool.insertTuple(t1, btree.getId(), first);
+        PageId leaf = first.getRecordId().getPageId();
+        assertEquals(LockManager.Mode.EXCLUSIVE, pool.getLockManager().getMode(t1, leaf));
+
+        CompletableFuture<Void> second = async(() ->
+                pool.insertTuple(t2, btree.getId(), BTreeUtility.getBTreeTuple(new int[] { 2, 2 })));
+        assertTrue(waits(second));
+        pool.transactionComplete(t1);
+        second.get(1, TimeUnit.SECONDS);
+        assertEquals(LockManager.Mode.EXCLUSIVE, pool.getLockManager().getMode(t2, leaf));
+        pool.transactionComplete(t2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance and skips pages that
+     * cannot be evicted.
+     */
+    @Test public void clock() {
+        ClockPolicy clock = new ClockPolicy(3);
+        for (int i = 0; i < 3; i++)
+            clock.pageAdded(pid(i));
+
+        // every bit is set: the first sweep clears them and evicts page 0
+        assertEquals(pid(0), clock.chooseVictim(p -> true));
+        clock.pageAdded(pid(3));
+        clock.pageAccessed(pid(1));
+        assertEquals(pid(2), clock.chooseVictim(p -> true));
+
+        // page 1 cannot be evicted, and page 3 is the only other page
+        assertEquals(pid(3), clock.chooseVictim(p -> !p.equals(pid(1))));
+        assertNull(clock.chooseVictim(p -> !p.equals(pid(1))));
+
+        clock.pageRemoved(pid(1));
+        assertNull(clock.chooseVictim(p -> true));
+    }
+
+    /**
+     * 2Q keeps pages that were requested again in its main queue, so they
+     * survive a scan over many pages read only once.
+     */
+    @Test public void twoQueueScanResistance() {
+        TwoQueuePolicy q = new TwoQueuePolicy(8);
+        HashSet<PageId> cached = new HashSet<PageId>();
+
+        // pages 0 and 1 are read, evicted, and read again: they go into Am
+        for (int i = 0; i < 2; i++) {
+            q.pageAdded(pid(i));
+            cached.add(pid(i));
+        }
+        for (int i = 0; i < 2; i++) {
+            PageId victim = q.chooseVictim(p -> true);
+            cached.remove(victim);
+        }
+        for (int i = 0; i < 2; i++) {
+            q.pageAdded(pid(i));
+            cached.add(pid(i));
+        }
+
+        // scan 100 pages through the remaining 6 frames
+        for (int i = 100; i < 200; i++) {
+            if (cached.size() == 8)
+                assertTrue(cached.remove(q.chooseVictim(p -> true)));
+            q.pageAdded(pid(i));
+            cached.add(pid(i));
+        }
+        assertTrue(cached.contains(pid(0)));
+        assertTrue(cached.contains(pid(1)));
+    }
+
+    /**
+     * The buffer pool counts hits and misses, and evicts with the policy it
+     * was created with.
+     */
+    @Test public void bufferPoolPolicy() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        assertTrue(f.numPages() > 4);
+
+        BufferPool pool = Database.resetBufferPool(4, TwoQueuePolicy::new);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(f.getId(), f.numPages() - 1), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        assertEquals(f.numPages(), pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
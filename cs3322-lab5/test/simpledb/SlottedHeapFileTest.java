@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+
+    private SlottedHeapFile slotted;
+    private HeapFile heap;
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Before public void setUp() throws Exception {
+        slotted = new SlottedHeapFile(tempFile(), TD);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        heap = new HeapFile(tempFile(), TD);
+        Database.getCatalog().addTable(heap, SystemTestUtil.getUUID());
+    }
+
+    private static int count(TransactionId tid, DbFile f) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("name" + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /**
+     * Records survive a round trip through the page format, and deleted
+     * records give their space back.
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(new HeapPageId(slotted.getId(), 0),
+                SlottedPage.createEmptyPageData());
+        int free = page.getFreeSpace();
+        assertEquals(SlottedPage.emptyPageFreeSpace(), free);
+
+        Tuple a = tuple(1, "name1");
+        Tuple b = tuple(2, "");
+        Tuple c = tuple(3, "name3");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        assertEquals(free - SlottedPage.spaceNeeded(a) - SlottedPage.spaceNeeded(b)
+                - SlottedPage.spaceNeeded(c), page.getFreeSpace());
+
+        page.deleteTuple(b);
+        SlottedPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertEquals(2, copy.getNumTuples());
+        assertFalse(copy.isSlotUsed(1));
+        assertEquals(c.getField(1), copy.stream().skip(1).findFirst().get().getField(1));
+
+        // the freed slot is reused, and deleting everything empties the page
+        page.insertTuple(b);
+        assertEquals(1, b.getRecordId().tupleno());
+        page.deleteTuple(a);
+        page.deleteTuple(b);
+        page.deleteTuple(c);
+        assertEquals(free, page.getFreeSpace());
+    }
+
+    /**
+     * Insert, SeqScan and Delete work on a slotted table, which needs far
+     * fewer pages than a HeapFile for short strings.
+     */
+    @Test public void operators() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (DbFile f : new DbFile[] {slotted, heap}) {
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (int i = 0; i < 1000; i++)
+                tuples.add(tuple(i, "name" + i));
+            Insert insert = new Insert(tid, new TupleIterator(TD, tuples), f.getId());
+            insert.open();
+            assertEquals(1000, ((IntField) insert.next().getField(0)).getValue());
+            insert.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(slotted.numPages() * 4 < heap.numPages());
+
+        tid = new TransactionId();
+        assertEquals(1000, count(tid, slotted));
+        Filter upper = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)),
+                new SeqScan(tid, slotted.getId()));
+        Delete delete = new Delete(tid, upper);
+        delete.open();
+        assertEquals(500, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(500, count(tid, slotted));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * "using slotted" in the catalog file creates a SlottedHeapFile.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("plain (id int, name string)\n");
+            w.write("short (id int pk, name string) using slotted\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog catalog = Database.getCatalog();
+        DbFile plain = catalog.getDatabaseFile(catalog.getTableId("plain"));
+        DbFile sl = catalog.getDatabaseFile(catalog.getTableId("short"));
+        assertFalse(plain instanceof SlottedHeapFile);
+        assertTrue(sl instanceof SlottedHeapFile);
+        assertEquals("id", catalog.getPrimaryKey(sl.getId()));
+        new File(schema.getParent(), "plain.dat").deleteOnExit();
+        new File(schema.getParent(), "short.dat").deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+public class StealNoForceTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 3;
+
+    private HeapFile heap;
+
+    @Before public void createFile() throws Exception {
+        heap = SystemTestUtil.createFullHeapFile(6);
+    }
+
+    private BufferPool stealingPool() {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, ClockPolicy::new, 1);
+        pool.setStealNoForce(true);
+        return pool;
+    }
+
+    private void deleteFirst(Transaction t, int page) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        HeapPage p = (HeapPage) pool.getPage(t.getId(), pageId(heap, page), Permissions.READ_WRITE);
+        pool.deleteTuple(t.getId(), p.iterator().next());
+    }
+
+    private int countOnDisk(int page) {
+        int n = 0;
+        for (Iterator<Tuple> it = ((HeapPage) heap.readPage(pageId(heap, page))).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * A transaction can modify more pages than the buffer pool holds, and
+     * its changes are all there once it commits.
+     */
+    @Test public void transactionLargerThanPool() throws Exception {
+        BufferPool pool = stealingPool();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < heap.numPages(); i++)
+            deleteFirst(t, i);
+        t.commit();
+
+        SeqScan scan = new SeqScan(new TransactionId(), heap.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        assertEquals(504 * 6 - heap.numPages(), n);
+
+        pool.flushAllPages();
+        for (int i = 0; i < heap.numPages(); i++)
+            assertEquals(503, countOnDisk(i));
+    }
+
+    /**
+     * Without STEAL, the same transaction runs out of clean pages to evict.
+     */
+    @Test public void noStealRunsOutOfPages() throws Exception {
+        Database.resetBufferPool(POOL_PAGES, ClockPolicy::new, 1);
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            for (int i = 0; i < heap.numPages(); i++)
+                deleteFirst(t, i);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        t.abort();
+    }
+
+    /**
+     * Aborting a transaction writes back the committed content of the pages
+     * it stole.
+     */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        stealingPool();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < heap.numPages(); i++)
+            deleteFirst(t, i);
+        int stolen = 0;
+        for (int i = 0; i < heap.numPages(); i++)
+            stolen += countOnDisk(i) < 504 ? 1 : 0;
+        assertTrue(stolen >= heap.numPages() - POOL_PAGES);
+
+        t.abort();
+        for (int i = 0; i < heap.numPages(); i++)
+            assertEquals(504, countOnDisk(i));
+    }
+
+    /**
+     * Recovery redoes the committed transactions and undoes the ones that
+     * were still running, whatever was written when the buffer pool was lost.
+     */
+    @Test public void recoverAfterCrash() throws Exception {
+        stealingPool();
+        Transaction committed = new Transaction();
+        committed.start();
+        deleteFirst(committed, 0);
+        committed.commit();
+        assertEquals(504, countOnDisk(0)); // NO-FORCE
+
+        Transaction running = new Transaction();
+        running.start();
+        for (int i = 1; i < heap.numPages(); i++)
+            deleteFirst(running, i);
+
+        // crash: the buffer pool is lost
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(503, countOnDisk(0));
+        for (int i = 1; i < heap.numPages(); i++)
+            assertEquals(504, countOnDisk(i));
+
+        // the running transaction is not undone again by the next recovery
+        Transaction later = new Transaction();
+        later.start();
+        deleteFirst(later, 1);
+        later.commit();
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().recover();
+        assertEquals(503, countOnDisk(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
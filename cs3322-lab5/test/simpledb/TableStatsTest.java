@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -86,6 +88,19 @@ public class TableStatsTest extends SimpleDbTestBase {
 		
 	}
 	
+	/**
+	 * Verify that collecting statistics releases the locks its scan took, so
+	 * that the table can be written afterwards.
+	 */
+	@Test public void releasesTableLock() throws Exception {
+		new TableStats(this.tableId, IO_COST);
+		TransactionId tid = new TransactionId();
+		CompletableFuture<Void> lock = CompletableFuture.runAsync(() ->
+				Database.getBufferPool().lockTable(tid, this.tableId, Permissions.READ_WRITE));
+		lock.get(10, TimeUnit.SECONDS);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+	
 	/**
 	 * Verify the table-cardinality estimates based on a selectivity estimate
 	 */
@@ -0,0 +1,91 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+    private HeapFile heap;
+    private File hot;
+
+    @Before public void createFile() throws Exception {
+        heap = SystemTestUtil.createFullHeapFile(6);
+        hot = File.createTempFile("hot", ".pages");
+        hot.deleteOnExit();
+    }
+
+    /**
+     * The pages of the buffer pool are recorded with their number of
+     * requests.
+     */
+    @Test public void saveAndLoad() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < heap.numPages(); i++)
+            pool.getPage(tid, pageId(heap, i), Permissions.READ_ONLY);
+        pool.getPage(tid, pageId(heap, 2), Permissions.READ_ONLY);
+        pool.getPage(tid, pageId(heap, 2), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        pool.saveHotPages(hot);
+        Map<PageId, Integer> pages = HotPageSet.load(hot);
+        assertEquals(heap.numPages(), pages.size());
+        assertEquals(Integer.valueOf(3), pages.get(pageId(heap, 2)));
+        assertEquals(Integer.valueOf(1), pages.get(pageId(heap, 0)));
+    }
+
+    /**
+     * After a restart, the most requested pages that fit are loaded back,
+     * and pages of dropped tables are skipped.
+     */
+    @Test public void warmUpLoadsHottestPages() throws Exception {
+        Map<PageId, Integer> pages = new HashMap<PageId, Integer>();
+        for (int i = 0; i < heap.numPages(); i++)
+            pages.put(pageId(heap, i), i == 4 ? 10 : 1);
+        pages.put(new HeapPageId(heap.getId() + 1, 0), 20); // no such table
+        HotPageSet.save(pages, hot);
+
+        BufferPool pool = Database.resetBufferPool(3);
+        assertEquals(Integer.valueOf(2), pool.warmUp(hot).get(10, TimeUnit.SECONDS));
+        assertEquals(0, pool.getMissCount());
+
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, pageId(heap, 4), Permissions.READ_ONLY);
+        assertEquals(0, pool.getMissCount());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A checkpoint records the pages of the buffer pool next to the log.
+     */
+    @Test public void checkpointRecordsPages() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, pageId(heap, 1), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+
+        File f = Database.getLogFile().getHotPagesFile();
+        f.delete();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(HotPageSet.load(f).containsKey(pageId(heap, 1)));
+        f.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the deadlock strategies of the {@link LockManager} on the
+ * workloads of DeadlockTest and BTreeDeadlockTest, run by many threads at
+ * once:
+ * <ul>
+ * <li>heap: each transaction reads two random pages of a small heap file,
+ * then asks to write both, so that transactions holding shared locks on the
+ * same pages deadlock upgrading them;</li>
+ * <li>btree: each transaction inserts a few random keys into a B+ tree,
+ * taking shared locks down the tree, and exclusive ones on the pages it
+ * splits.</li>
+ * </ul>
+ * Aborted transactions are rolled back and retried with a new id. Reported
+ * are the committed transactions per second and the fraction of the
+ * transactions that aborted.
+ * <p>
+ * Usage: <code>java simpledb.benchmark.DeadlockBenchmark [threads [millis]]</code>
+ */
+public class DeadlockBenchmark {
+	private static final int HEAP_PAGES = 8;
+	private static final int BTREE_ROWS = 20000;
+	private static final int INSERTS_PER_TRANSACTION = 4;
+
+	/** One transaction of a workload. */
+	private interface Workload {
+		void run(BufferPool pool, TransactionId tid, ThreadLocalRandom random) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+		HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 504 * HEAP_PAGES, null, null);
+		BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, BTREE_ROWS, null, null, 0);
+		System.out.printf("%d threads, %d ms per run; heap %d pages, btree %d pages%n",
+				threads, millis, heap.numPages(), btree.numPages());
+
+		Workload upgrades = (pool, tid, random) -> {
+			PageId a = new HeapPageId(heap.getId(), random.nextInt(HEAP_PAGES));
+			PageId b = new HeapPageId(heap.getId(), random.nextInt(HEAP_PAGES));
+			pool.getPage(tid, a, Permissions.READ_ONLY);
+			pool.getPage(tid, b, Permissions.READ_ONLY);
+			pool.getPage(tid, a, Permissions.READ_WRITE);
+			pool.getPage(tid, b, Permissions.READ_WRITE);
+		};
+		Workload inserts = (pool, tid, random) -> {
+			for (int i = 0; i < INSERTS_PER_TRANSACTION; i++)
+				pool.insertTuple(tid, btree.getId(), BTreeUtility.getBTreeTuple(
+						random.nextInt(BTreeUtility.MAX_RAND_VALUE), 2));
+		};
+
+		for (LockManager.Strategy strategy : LockManager.Strategy.values())
+			run("heap", upgrades, strategy, threads, millis);
+		for (LockManager.Strategy strategy : LockManager.Strategy.values())
+			run("btree", inserts, strategy, threads, millis);
+	}
+
+	private static void run(String name, Workload workload, LockManager.Strategy strategy,
+			int threads, long millis) throws Exception {
+		BufferPool pool = Database.resetBufferPool(500);
+		pool.getLockManager().setStrategy(strategy);
+		LongAdder commits = new LongAdder();
+		LongAdder aborts = new LongAdder();
+		long end = System.nanoTime() + millis * 1000000;
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < end) {
+					TransactionId tid = new TransactionId();
+					boolean commit = false;
+					try {
+						workload.run(pool, tid, random);
+						commit = true;
+					}
+					catch (TransactionAbortedException e) {
+						aborts.increment();
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+						aborts.increment();
+					}
+					try {
+						pool.transactionComplete(tid, commit);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+					if (commit)
+						commits.increment();
+				}
+			});
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+
+		System.out.printf("%-5s %-10s %10.0f transactions/s  %6.2f%% aborted%n", name, strategy,
+				commits.sum() * 1000.0 / millis,
+				100.0 * aborts.sum() / Math.max(1, commits.sum() + aborts.sum()));
+	}
+}
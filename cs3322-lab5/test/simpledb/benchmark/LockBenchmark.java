@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of the {@link LockManager} under contention:
+ * threads run short transactions, each locking a few random pages out of a
+ * small set, mostly in shared mode, then releasing all of them. Transactions
+ * aborted by a deadlock are counted and retried. Each run is repeated with
+ * each {@link LockManager.VictimPolicy}.
+ * <p>
+ * Usage: <code>java simpledb.benchmark.LockBenchmark [pages [millis [writePercent]]]</code>
+ */
+public class LockBenchmark {
+	private static final int LOCKS_PER_TRANSACTION = 8;
+
+	public static void main(String[] args) throws Exception {
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int writePercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		System.out.printf("%d pages, %d locks per transaction, %d%% exclusive, %d ms per run%n",
+				pages, LOCKS_PER_TRANSACTION, writePercent, millis);
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (LockManager.VictimPolicy policy : LockManager.VictimPolicy.values()) {
+			for (int threads = 1; threads <= 4 * cores; threads *= 2)
+				run(policy, threads, pages, millis, writePercent);
+		}
+	}
+
+	private static void run(LockManager.VictimPolicy policy, int threads, int pages, long millis,
+			int writePercent) throws Exception {
+		LockManager locks = new LockManager();
+		locks.setVictimPolicy(policy);
+		LongAdder commits = new LongAdder();
+		LongAdder aborts = new LongAdder();
+		long end = System.nanoTime() + millis * 1000000;
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < end) {
+					TransactionId tid = new TransactionId();
+					try {
+						for (int n = 0; n < LOCKS_PER_TRANSACTION; n++) {
+							PageId pid = new HeapPageId(0, random.nextInt(pages));
+							locks.acquire(tid, pid, random.nextInt(100) < writePercent
+									? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+						}
+						commits.increment();
+					}
+					catch (TransactionAbortedException e) {
+						aborts.increment();
+					}
+					finally {
+						locks.releaseAll(tid);
+					}
+				}
+			});
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+
+		System.out.printf("%-12s %3d threads  %10.0f transactions/s  %6.2f%% aborted%n", policy, threads,
+				commits.sum() * 1000.0 / millis,
+				100.0 * aborts.sum() / Math.max(1, commits.sum() + aborts.sum()));
+	}
+}
@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Compares aggregates over a wide table stored in a {@link HeapFile} with the
+ * same table stored in a {@link PaxHeapFile}. The query sums one column,
+ * grouped by another, so it only looks at 2 of the columns of each tuple.
+ * The buffer pool is reset before every run, so each run reads and decodes
+ * all pages again.
+ * <p>
+ * Usage: <code>java simpledb.benchmark.PaxBenchmark [rows [columns [runs]]]</code>
+ */
+public class PaxBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int columns = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		TupleDesc td = Utility.getTupleDesc(columns);
+		HeapFile heap = create(new HeapFile(tempFile(), td), rows);
+		HeapFile pax = create(new PaxHeapFile(tempFile(), td), rows);
+		System.out.println(rows + " rows of " + columns + " int columns, "
+				+ heap.numPages() + " pages");
+
+		for (HeapFile f : new HeapFile[] {heap, pax}) {
+			long best = Long.MAX_VALUE;
+			int groups = 0;
+			for (int i = 0; i < runs; i++) {
+				Database.resetBufferPool(heap.numPages() + 16);
+				long start = System.nanoTime();
+				groups = aggregate(f);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("%-12s %8.1f ms  (%d groups)%n",
+					f.getClass().getSimpleName(), best / 1e6, groups);
+		}
+	}
+
+	private static File tempFile() throws Exception {
+		File f = File.createTempFile("bench", ".dat");
+		f.deleteOnExit();
+		return f;
+	}
+
+	private static HeapFile create(HeapFile f, int rows) throws Exception {
+		Database.getCatalog().addTable(f);
+		TupleDesc td = f.getTupleDesc();
+		int perPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+		Database.resetBufferPool(rows / perPage + 16);
+
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+		for (int i = 0; i < rows; i++) {
+			Tuple t = new Tuple(td);
+			for (int j = 0; j < td.numFields(); j++)
+				t.setField(j, new IntField(j == 1 ? i % 100 : i + j));
+			tuples.add(t);
+		}
+
+		TransactionId tid = new TransactionId();
+		Insert insert = new Insert(tid, new TupleIterator(td, tuples), f.getId());
+		insert.open();
+		insert.next();
+		insert.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return f;
+	}
+
+	private static int aggregate(HeapFile f) throws Exception {
+		TransactionId tid = new TransactionId();
+		Aggregate agg = new Aggregate(new SeqScan(tid, f.getId()), 2, 1, Aggregator.Op.SUM);
+		agg.open();
+		int groups = 0;
+		while (agg.hasNext()) {
+			agg.next();
+			groups++;
+		}
+		agg.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return groups;
+	}
+}
@@ -0,0 +1,113 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares page locks and record locks (see
+ * {@link BufferPool#setRecordLocking(boolean)}) on a table of a single page:
+ * each transaction updates a few rows of it, i.e. deletes each row and
+ * inserts it again, optionally thinking between two updates as a client
+ * would, then commits. No two transactions update the same row at once, so
+ * with record locks they only share the page, while with page locks they
+ * queue for it. Reported are the committed transactions per second and the
+ * fraction of the transactions that aborted.
+ * <p>
+ * Usage: <code>java simpledb.benchmark.RecordLockBenchmark [threads [millis [thinkMicros]]]</code>
+ */
+public class RecordLockBenchmark {
+	private static final int ROWS = 256;
+	private static final int UPDATES_PER_TRANSACTION = 4;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+		long think = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		System.out.printf("%d threads, %d updates per transaction, %d us thinking, %d ms per run%n",
+				threads, UPDATES_PER_TRANSACTION, think, millis);
+
+		run(false, threads, millis, think);
+		run(true, threads, millis, think);
+	}
+
+	private static void run(boolean recordLocking, int threads, long millis, long think) throws Exception {
+		HeapFile heap = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+		BufferPool pool = Database.resetBufferPool(500);
+		pool.setRecordLocking(recordLocking);
+
+		// the current version of each row, null while a transaction updates it
+		AtomicReferenceArray<Tuple> rows = new AtomicReferenceArray<>(ROWS);
+		TransactionId loader = new TransactionId();
+		DbFileIterator it = heap.iterator(loader);
+		it.open();
+		for (int i = 0; it.hasNext(); i++)
+			rows.set(i, it.next());
+		it.close();
+		pool.transactionComplete(loader);
+
+		LongAdder commits = new LongAdder();
+		LongAdder aborts = new LongAdder();
+		long end = System.nanoTime() + millis * 1000000;
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				int[] claimed = new int[UPDATES_PER_TRANSACTION];
+				Tuple[] old = new Tuple[UPDATES_PER_TRANSACTION];
+				Tuple[] updated = new Tuple[UPDATES_PER_TRANSACTION];
+				while (System.nanoTime() < end) {
+					TransactionId tid = new TransactionId();
+					int n = 0;
+					boolean commit = false;
+					try {
+						for (; n < UPDATES_PER_TRANSACTION; n++) {
+							do {
+								claimed[n] = random.nextInt(ROWS);
+							} while ((old[n] = rows.getAndSet(claimed[n], null)) == null);
+							updated[n] = Utility.getHeapTuple(random.nextInt(), 2);
+							pool.deleteTuple(tid, old[n]);
+							pool.insertTuple(tid, heap.getId(), updated[n]);
+							if (think > 0)
+								TimeUnit.MICROSECONDS.sleep(think);
+						}
+						commit = true;
+					}
+					catch (TransactionAbortedException e) {
+						aborts.increment();
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+						aborts.increment();
+					}
+					try {
+						pool.transactionComplete(tid, commit);
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+					if (commit)
+						commits.increment();
+					// give the rows back, in their new version if committed
+					for (int k = 0; k < Math.min(n + 1, UPDATES_PER_TRANSACTION); k++) {
+						if (old[k] != null)
+							rows.set(claimed[k], commit ? updated[k] : old[k]);
+						old[k] = null;
+					}
+				}
+			});
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+
+		System.out.printf("%-6s locks %10.0f transactions/s  %6.2f%% aborted%n",
+				recordLocking ? "record" : "page", commits.sum() * 1000.0 / millis,
+				100.0 * aborts.sum() / Math.max(1, commits.sum() + aborts.sum()));
+	}
+}
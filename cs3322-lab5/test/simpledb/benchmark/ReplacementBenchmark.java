@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import java.util.function.IntFunction;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the hit rates of the buffer pool replacement policies on a mix of
+ * join queries: hash joins of two small dimension tables with a large fact
+ * table, nested loops joins of the dimension tables with each other, and a
+ * nested loops join that scans a medium table a few times. The fact table
+ * and the medium table are both larger than the buffer pool, while the
+ * dimension tables would fit in it if the scans of the large tables did not
+ * push them out.
+ * <p>
+ * Besides the hit rate of {@link BufferPool#getPage}, the number of pages
+ * read from disk is reported, which includes the pages read ahead by scans.
+ * <p>
+ * Usage: <code>java simpledb.benchmark.ReplacementBenchmark [poolPages [rounds]]</code>
+ */
+public class ReplacementBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 100000, 1000, null, null);
+		HeapFile medium = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, null);
+		HeapFile dim1 = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+		HeapFile dim2 = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+		System.out.printf("pool %d pages; fact %d, medium %d, dimensions %d and %d pages%n",
+				poolPages, fact.numPages(), medium.numPages(), dim1.numPages(), dim2.numPages());
+
+		run("CLOCK", ClockPolicy::new, poolPages, rounds, fact, medium, dim1, dim2);
+		run("2Q", TwoQueuePolicy::new, poolPages, rounds, fact, medium, dim1, dim2);
+	}
+
+	private static void run(String name, IntFunction<ReplacementPolicy> policy, int poolPages,
+			int rounds, HeapFile fact, HeapFile medium, HeapFile dim1, HeapFile dim2) throws Exception {
+		BufferPool pool = Database.resetBufferPool(poolPages, policy);
+		FileChannelManager io = Database.getFileChannelManager();
+		io.resetStats();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			TransactionId tid = new TransactionId();
+			drain(hashJoin(tid, dim1, fact));
+			drain(nestedLoopsJoin(tid, dim1, dim2, 20));
+			drain(hashJoin(tid, dim2, fact));
+			drain(nestedLoopsJoin(tid, dim2, dim1, 20));
+			drain(nestedLoopsJoin(tid, dim2, medium, 2));
+			pool.transactionComplete(tid);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long hits = pool.getHitCount();
+		long requests = hits + pool.getMissCount();
+		System.out.printf("%-6s hit rate %5.1f%%  (%d of %d)  %d pages read  %.0f ms%n",
+				name, 100.0 * hits / requests, hits, requests, io.getReads(), elapsed / 1e6);
+	}
+
+	/**
+	 * Join the tuples of outer with a key below the specified bound with
+	 * inner, rescanning inner for each of them.
+	 */
+	private static DbIterator nestedLoopsJoin(TransactionId tid, HeapFile outer, HeapFile inner, int bound) {
+		return new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+				new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(bound)),
+						new SeqScan(tid, outer.getId())),
+				new SeqScan(tid, inner.getId()));
+	}
+
+	/**
+	 * Hash join on the first field; the inner table is hashed.
+	 */
+	private static DbIterator hashJoin(TransactionId tid, HeapFile a, HeapFile b) {
+		return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+				new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+	}
+
+	private static void drain(DbIterator it) throws Exception {
+		it.open();
+		while (it.hasNext())
+			it.next();
+		it.close();
+	}
+}
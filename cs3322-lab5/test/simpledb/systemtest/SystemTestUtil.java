@@ -38,6 +38,9 @@ public class SystemTestUtil {
 
     private static final int MAX_RAND_VALUE = 1 << 16;
 
+    // tuples of two int columns on a page of the default size
+    private static final int TWO_INT_TUPLES_PER_PAGE = 504;
+
     /** @param columnSpecification Mapping between column index and value. */
     public static HeapFile createRandomHeapFile(
             int columns, int rows, Map<Integer, Integer> columnSpecification,
@@ -72,6 +75,24 @@ public class SystemTestUtil {
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
 
+    /**
+     * Create a heap file of two random int columns whose pages are all full,
+     * e.g. to fill a buffer pool page by page.
+     *
+     * @param pages the number of pages of the file
+     */
+    public static HeapFile createFullHeapFile(int pages)
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile heap = createRandomHeapFile(2, TWO_INT_TUPLES_PER_PAGE * pages, null, null);
+        Assert.assertEquals(pages, heap.numPages());
+        return heap;
+    }
+
+    /** @return the id of the specified page of a heap file */
+    public static PageId pageId(HeapFile heap, int pageNo) {
+        return new HeapPageId(heap.getId(), pageNo);
+    }
+
     public static File createRandomHeapFileUnopened(int columns, int rows,
             int maxValue, Map<Integer, Integer> columnSpecification,
             ArrayList<ArrayList<Integer>> tuples) throws IOException {